@@ -0,0 +1,71 @@
+package org.softwareartisans.util.workgroup.bench;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Benchmark task: burns a fixed amount of CPU and, when chosen to fail,
+ * throws on its first attempt so the Group retries it once.
+ */
+class BenchTask implements Callable<Integer> {
+	private final int number;
+	private final long work;
+	private boolean isFailing;
+
+	BenchTask(int number, long work, boolean isFailing) {
+		this.number = number;
+		this.work = work;
+		this.isFailing = isFailing;
+	}
+
+	@Override
+	public Integer call() throws Exception {
+		Blackhole.consumeCPU(work);
+		if (isFailing) {
+			isFailing = false;
+			throw new Exception("Benchmark failure for task: " + number);
+		}
+		return number;
+	}
+
+	/*
+	 * The same tasks fail for a given seed so runs stay comparable.
+	 */
+	static List<BenchTask> createTasks(int taskCount, long work,
+			double failureRate) {
+		Random random = new Random(taskCount);
+		List<BenchTask> tasks = new ArrayList<BenchTask>(taskCount);
+		for (int i = 0; i < taskCount; i++) {
+			tasks.add(new BenchTask(i, work, random.nextDouble() < failureRate));
+		}
+		return tasks;
+	}
+}
@@ -0,0 +1,113 @@
+package org.softwareartisans.util.workgroup.bench;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.softwareartisans.util.workgroup.Group;
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+
+/*
+ * The same Group run each way it can execute: a task per pool thread
+ * submission, virtual threads, micro-task batches and a lazy task source.
+ * Virtual threads fall back to a cached pool before Java 21.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ExecutionModeBenchmark {
+	private static final int POOL_SIZE = Runtime.getRuntime()
+			.availableProcessors();
+
+	@Param({ "pool", "virtual", "batched", "source" })
+	private String mode;
+
+	@Param({ "1000", "100000" })
+	private int taskCount;
+
+	@Param({ "100" })
+	private long taskWork;
+
+	private Group<Integer> group;
+
+	@Setup(Level.Invocation)
+	public void buildGroup() {
+		GroupBuilder<Integer> builder = new GroupBuilder<Integer>();
+		final List<BenchTask> tasks = BenchTask.createTasks(taskCount,
+				taskWork, 0);
+		if ("source".equals(mode)) {
+			final Iterator<BenchTask> source = tasks.iterator();
+			builder.taskSource(new Iterator<Callable<Integer>>() {
+				@Override
+				public boolean hasNext() {
+					return source.hasNext();
+				}
+
+				@Override
+				public Callable<Integer> next() {
+					return source.next();
+				}
+			}, POOL_SIZE * 64);
+		} else {
+			for (BenchTask task : tasks) {
+				builder.addCallable(task);
+			}
+		}
+
+		if ("virtual".equals(mode)) {
+			builder.virtualThreads();
+		} else {
+			builder.threadPoolSize(POOL_SIZE);
+		}
+		if ("batched".equals(mode)) {
+			builder.batchSize(256);
+		}
+		group = builder.build();
+	}
+
+	@Benchmark
+	public void processGroup(Blackhole blackhole) {
+		blackhole.consume(group.processGroup());
+	}
+}
@@ -0,0 +1,122 @@
+package org.softwareartisans.util.workgroup.bench;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.softwareartisans.util.workgroup.Group;
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.retry.ImmediateCounting;
+
+/*
+ * Group.processGroup across task counts, pool sizes and failure rates. The
+ * groups and tasks counters give Groups and tasks per second; SampleTime
+ * gives the distribution of invocation latency. Groups are built before
+ * each invocation, so only processing is timed - including each Group
+ * starting and stopping its own pool.
+ * 
+ * Small Groups are processed several to an invocation, at least
+ * MIN_INVOCATION_TASKS tasks in all, since timestamping every invocation
+ * for Level.Invocation setup would otherwise distort their timings.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class GroupBenchmark {
+	private static final int MIN_INVOCATION_TASKS = 10000;
+
+	@Param({ "10", "1000", "100000", "1000000" })
+	private int taskCount;
+
+	@Param({ "1", "4", "16" })
+	private int threadPoolSize;
+
+	@Param({ "0", "0.01", "0.1" })
+	private double failureRate;
+
+	// Blackhole.consumeCPU tokens per task
+	@Param({ "100" })
+	private long taskWork;
+
+	private final List<Group<Integer>> groups = new ArrayList<Group<Integer>>();
+
+	@Setup(Level.Invocation)
+	public void buildGroups() {
+		groups.clear();
+		int groupCount = Math.max(1, MIN_INVOCATION_TASKS / taskCount);
+		for (int i = 0; i < groupCount; i++) {
+			GroupBuilder<Integer> builder = new GroupBuilder<Integer>();
+			for (BenchTask task : BenchTask.createTasks(taskCount, taskWork,
+					failureRate)) {
+				builder.addCallable(task);
+			}
+			// Every failing task is retried once, immediately
+			groups.add(builder.threadPoolSize(threadPoolSize)
+					.retrier(new ImmediateCounting(1, taskCount, taskCount))
+					.build());
+		}
+	}
+
+	@Benchmark
+	public void processGroups(TaskCounter counter, Blackhole blackhole) {
+		for (Group<Integer> group : groups) {
+			blackhole.consume(group.processGroup());
+		}
+		counter.groups += groups.size();
+		counter.tasks += (long) taskCount * groups.size();
+	}
+
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class TaskCounter {
+		public long groups;
+		public long tasks;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			groups = 0;
+			tasks = 0;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.softwareartisans.util.workgroup.bench;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.softwareartisans.util.workgroup.retry.ImmediateCounting;
+
+/*
+ * ImmediateCounting.retry alone and with every hardware thread retrying at
+ * once. Threads retry the same task, different tasks of one Group, or tasks
+ * in Groups of their own; the global count is always shared. Limits are
+ * high enough never to refuse, and a fresh retrier each iteration keeps the
+ * counts from reaching them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RetrierBenchmark {
+	@State(Scope.Benchmark)
+	public static class SharedRetrier {
+		private ImmediateCounting retrier;
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Setup(Level.Iteration)
+		public void createRetrier() {
+			retrier = new ImmediateCounting(Integer.MAX_VALUE,
+					Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class RetryKey {
+		@Param({ "task", "group", "distinct" })
+		private String sharing;
+
+		private int groupId;
+		private int taskId;
+
+		@Setup(Level.Trial)
+		public void chooseKey(SharedRetrier shared) {
+			int thread = shared.threadCount.getAndIncrement();
+			if ("group".equals(sharing)) {
+				taskId = thread;
+			} else if ("distinct".equals(sharing)) {
+				groupId = thread;
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long retry(SharedRetrier shared, RetryKey key) {
+		return shared.retrier.retry(key.groupId, key.taskId);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long retryContended(SharedRetrier shared, RetryKey key) {
+		return shared.retrier.retry(key.groupId, key.taskId);
+	}
+}
@@ -0,0 +1,118 @@
+package org.softwareartisans.util.workgroup.bench;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.Space;
+import org.softwareartisans.util.workgroup.Space.SpaceBuilder;
+
+/*
+ * Space.solve with many Groups, run one at a time or several at once, each
+ * Group either starting its own pool or sharing one pool across the Space.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class SpaceBenchmark {
+	private static final int POOL_SIZE = Runtime.getRuntime()
+			.availableProcessors();
+
+	@Param({ "10", "100", "1000" })
+	private int groupCount;
+
+	@Param({ "10", "1000" })
+	private int tasksPerGroup;
+
+	@Param({ "1", "4" })
+	private int parallelism;
+
+	@Param({ "false", "true" })
+	private boolean isSharedExecutor;
+
+	@Param({ "100" })
+	private long taskWork;
+
+	private ExecutorService executorService;
+	private Space<Integer> space;
+
+	@Setup(Level.Trial)
+	public void startExecutor() {
+		if (isSharedExecutor) {
+			executorService = Executors.newFixedThreadPool(POOL_SIZE);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stopExecutor() {
+		if (executorService != null) {
+			executorService.shutdown();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void buildSpace() {
+		SpaceBuilder<Integer> spaceBuilder = new SpaceBuilder<Integer>()
+				.parallelism(parallelism);
+		if (isSharedExecutor) {
+			spaceBuilder.executorService(executorService);
+		}
+		for (int i = 0; i < groupCount; i++) {
+			GroupBuilder<Integer> groupBuilder = new GroupBuilder<Integer>();
+			for (BenchTask task : BenchTask.createTasks(tasksPerGroup,
+					taskWork, 0)) {
+				groupBuilder.addCallable(task);
+			}
+			spaceBuilder.addGroup(groupBuilder.threadPoolSize(POOL_SIZE)
+					.build());
+		}
+		space = spaceBuilder.build();
+	}
+
+	@Benchmark
+	public void solve(Blackhole blackhole) {
+		blackhole.consume(space.solve());
+	}
+}
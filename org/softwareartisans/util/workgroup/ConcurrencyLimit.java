@@ -0,0 +1,102 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/*
+ * Adaptive limit on a Group's tasks in flight, adjusted by additive increase
+ * and multiplicative decrease from each finished task.
+ * 
+ * A task that fails, or that ran more than LATENCY_TOLERANCE times slower
+ * than the baseline latency, is a sign the backend is past its capacity and
+ * cuts the limit by BACKOFF_RATIO, at most once per limit's worth of tasks
+ * so a burst of slow tasks counts once. Otherwise, while the Group is using
+ * at least half the limit, the limit grows: by one per task until the first
+ * cut, to find the capacity quickly, then by one per limit's worth of tasks
+ * so it probes gently around what it found. The baseline is the
+ * lowest latency seen, re-measured every BASELINE_WINDOW tasks so it follows
+ * a backend whose normal latency changes.
+ * 
+ * Not thread-safe; the Group calls it under its own lock.
+ */
+final class ConcurrencyLimit {
+	private static final double BACKOFF_RATIO = 0.9;
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final int BASELINE_WINDOW = 500;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private double limit;
+	private long baselineNanos = Long.MAX_VALUE;
+	private long windowMinNanos = Long.MAX_VALUE;
+	private int windowSamples;
+	private int samplesSinceBackoff;
+	private boolean isProbing = false;
+
+	ConcurrencyLimit(int minLimit, int maxLimit) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = minLimit;
+	}
+
+	int getLimit() {
+		return (int) limit;
+	}
+
+	int getMaxLimit() {
+		return maxLimit;
+	}
+
+	/*
+	 * @param inFlight tasks in flight when this one finished, itself
+	 * included
+	 */
+	void onSample(long runNanos, boolean isFailed, int inFlight) {
+		if (!isFailed) {
+			updateBaseline(runNanos);
+		}
+		samplesSinceBackoff++;
+
+		boolean isSlow = runNanos > baselineNanos * LATENCY_TOLERANCE;
+		if (isFailed || isSlow) {
+			if (samplesSinceBackoff >= limit) {
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+				samplesSinceBackoff = 0;
+				isProbing = true;
+			}
+		} else if (inFlight * 2 >= limit) {
+			limit = Math.min(maxLimit, limit + (isProbing ? 1 / limit : 1));
+		}
+	}
+
+	private void updateBaseline(long runNanos) {
+		windowMinNanos = Math.min(windowMinNanos, runNanos);
+		baselineNanos = Math.min(baselineNanos, runNanos);
+		if (++windowSamples == BASELINE_WINDOW) {
+			baselineNanos = windowMinNanos;
+			windowMinNanos = Long.MAX_VALUE;
+			windowSamples = 0;
+		}
+	}
+}
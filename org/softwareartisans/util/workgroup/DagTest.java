@@ -0,0 +1,189 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.Space.SpaceBuilder;
+
+/*
+ * Driver for a diamond of Groups solved in parallel: Group 0 feeds Groups 1
+ * and 2, which both feed Group 3. Each Group must start only after its
+ * upstream Groups finish, and be built from their Results. When one branch
+ * fails, the Space must fail and the other branch be cancelled.
+ */
+class DagTest {
+	private static final int GROUPS = 4;
+
+	// First task start and last task finish of each Group, in nanoTime
+	private static final AtomicLongArray starts = new AtomicLongArray(GROUPS);
+	private static final AtomicLongArray finishes = new AtomicLongArray(
+			GROUPS);
+	private static final AtomicBoolean isInterrupted = new AtomicBoolean();
+	private static final AtomicBoolean isJoinBuilt = new AtomicBoolean();
+
+	public static void main(String[] args) throws InterruptedException {
+		List<Result<Integer>> results = diamond(false).build().solve();
+		for (int group = 0; group < GROUPS; group++) {
+			System.out.println("Group " + group + ": " + results.get(group));
+		}
+		checkAfter(1, 0);
+		checkAfter(2, 0);
+		checkAfter(3, 1);
+		checkAfter(3, 2);
+		// 0 sums to 3, the branches scale it, the join adds them up
+		check(results.get(3).getWorkGroupResult().get(0) == 30 + 300,
+				"Join did not get the branch Results");
+
+		try {
+			diamond(true).build().solve();
+			throw new IllegalStateException("Failing branch did not fail");
+		} catch (IllegalStateException e) {
+			System.out.println("Failing branch: " + e.getMessage());
+		}
+		Thread.sleep(200);
+		check(isInterrupted.get(), "Other branch was not cancelled");
+		check(!isJoinBuilt.get(), "Join was built after a branch failed");
+		System.out.println("Other branch cancelled, join never built");
+	}
+
+	private static SpaceBuilder<Integer> diamond(final boolean isFailing) {
+		for (int group = 0; group < GROUPS; group++) {
+			starts.set(group, Long.MAX_VALUE);
+			finishes.set(group, 0);
+		}
+		isInterrupted.set(false);
+		isJoinBuilt.set(false);
+		SpaceBuilder<Integer> spaceBuilder = new SpaceBuilder<Integer>()
+				.parallelism(GROUPS);
+		spaceBuilder.addGroup(new GroupBuilder<Integer>()
+				.addCallable(new Value(0, 1, 20))
+				.addCallable(new Value(0, 2, 20)).build());
+		spaceBuilder.addGroup(new Branch(1, 10, isFailing), 0);
+		spaceBuilder.addGroup(new Branch(2, 100, false), 0);
+		spaceBuilder.addGroup(new GroupFactory<Integer>() {
+			@Override
+			public Group<Integer> createGroup(
+					List<Result<Integer>> upstreamResults) {
+				isJoinBuilt.set(true);
+				check(upstreamResults.size() == 2,
+						"Join got " + upstreamResults.size() + " Results");
+				int sum = 0;
+				for (Result<Integer> upstream : upstreamResults) {
+					sum += upstream.getWorkGroupResult().get(0);
+				}
+				return new GroupBuilder<Integer>().addCallable(
+						new Value(3, sum, 20)).build();
+			}
+		}, 1, 2);
+		return spaceBuilder;
+	}
+
+	private static void checkAfter(int group, int upstream) {
+		check(starts.get(group) >= finishes.get(upstream), "Group " + group
+				+ " started before Group " + upstream + " finished");
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			throw new IllegalStateException(failure);
+		}
+	}
+
+	// Scales the sum of Group 0's Results, or fails at once
+	private static class Branch implements GroupFactory<Integer> {
+		private final int group;
+		private final int scale;
+		private final boolean isFailing;
+
+		Branch(int group, int scale, boolean isFailing) {
+			this.group = group;
+			this.scale = scale;
+			this.isFailing = isFailing;
+		}
+
+		@Override
+		public Group<Integer> createGroup(List<Result<Integer>> upstreamResults) {
+			check(upstreamResults.size() == 1, "Branch got "
+					+ upstreamResults.size() + " Results");
+			int sum = 0;
+			for (int value : upstreamResults.get(0).getWorkGroupResult()) {
+				sum += value;
+			}
+			GroupBuilder<Integer> builder = new GroupBuilder<Integer>();
+			if (isFailing) {
+				return builder.failFastOn(UnsupportedOperationException.class)
+						.addCallable(new Failing()).build();
+			}
+			// Long enough that a failing sibling fails while this runs
+			return builder.addCallable(new Value(group, sum * scale, 500))
+					.build();
+		}
+	}
+
+	// Returns its value after sleeping, recording when its Group ran
+	private static class Value implements Callable<Integer> {
+		private final int group;
+		private final int value;
+		private final int millis;
+
+		Value(int group, int value, int millis) {
+			this.group = group;
+			this.value = value;
+			this.millis = millis;
+		}
+
+		@Override
+		public Integer call() throws InterruptedException {
+			long start = System.nanoTime();
+			long seen;
+			while (start < (seen = starts.get(group))
+					&& !starts.compareAndSet(group, seen, start)) {
+			}
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				isInterrupted.set(true);
+				throw e;
+			}
+			long finish = System.nanoTime();
+			while (finish > (seen = finishes.get(group))
+					&& !finishes.compareAndSet(group, seen, finish)) {
+			}
+			return value;
+		}
+	}
+
+	private static class Failing implements Callable<Integer> {
+		@Override
+		public Integer call() {
+			throw new UnsupportedOperationException("Branch fails");
+		}
+	}
+}
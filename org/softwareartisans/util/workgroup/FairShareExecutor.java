@@ -0,0 +1,392 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * A thread pool shared by several Groups that dispatches by Group priority
+ * and weight instead of first come, first served.
+ * 
+ * Each Group run on the pool gets its own queue. Queues of a higher priority
+ * are always served first. Queues of the same priority share the threads in
+ * proportion to their weights using start-time fair queuing: every task is
+ * tagged with a virtual start time that advances by 1/weight per task of its
+ * queue, and the earliest tag runs next. A Group that becomes busy joins at
+ * the current virtual time, so it neither waits behind a long backlog nor
+ * claims credit for the time it was idle.
+ * 
+ * To keep bulk work from starving, a busy lower priority that has gone
+ * maxWait without being served has its next task run ahead of the higher
+ * priorities, so it always makes some progress.
+ * 
+ * Groups pick up their priority and weight when given this pool through
+ * GroupBuilder.executorService() or SpaceBuilder.executorService(). Tasks
+ * submitted directly run at priority 0 and weight 1.
+ */
+public class FairShareExecutor extends AbstractExecutorService {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition taskAvailable = lock.newCondition();
+	private final Condition terminated = lock.newCondition();
+	private final long maxWaitNanos;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final TaskQueue defaultQueue;
+
+	// guarded by lock; highest priority first
+	private final TreeMap<Integer, PriorityLevel> levels = new TreeMap<Integer, PriorityLevel>(
+			Collections.reverseOrder());
+	private int queuedTasks;
+	private int runningWorkers;
+	private boolean isShutdown;
+
+	public FairShareExecutor(int threads) {
+		this(threads, 1000);
+	}
+
+	public FairShareExecutor(int threads, long maxWait) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Threads must be at least 1: " + threads);
+		}
+		if (maxWait < 1) {
+			throw new IllegalArgumentException(
+					"Max wait must be at least 1: " + maxWait);
+		}
+		maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+		defaultQueue = new TaskQueue(0, 1);
+		runningWorkers = threads;
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Worker(), "workgroup-fairshare-"
+					+ i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/*
+	 * A queue of this pool with its own priority, higher first, and weight
+	 * among queues of the same priority. Shutting the queue down does not
+	 * affect the pool.
+	 */
+	public TaskQueue newQueue(int priority, int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be at least 1: "
+					+ weight);
+		}
+		return new TaskQueue(priority, weight);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		defaultQueue.execute(task);
+	}
+
+	@Override
+	public void shutdown() {
+		lock.lock();
+		try {
+			isShutdown = true;
+			taskAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> unstarted = new ArrayList<Runnable>();
+		lock.lock();
+		try {
+			isShutdown = true;
+			for (PriorityLevel level : levels.values()) {
+				level.drainTo(unstarted);
+			}
+			queuedTasks = 0;
+			taskAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		return unstarted;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		lock.lock();
+		try {
+			return isShutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isTerminated() {
+		lock.lock();
+		try {
+			return runningWorkers == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (runningWorkers > 0) {
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = terminated.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(TaskQueue queue, Runnable task) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try {
+			if (isShutdown) {
+				throw new RejectedExecutionException(
+						"Fair share executor is shut down");
+			}
+			PriorityLevel level = levels.get(queue.priority);
+			if (level == null) {
+				level = new PriorityLevel();
+				levels.put(queue.priority, level);
+			}
+			level.add(queue, task);
+			queuedTasks++;
+			taskAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Called with the lock held
+	private Runnable next() {
+		if (queuedTasks == 0) {
+			return null;
+		}
+		PriorityLevel first = null;
+		long now = System.nanoTime();
+		for (PriorityLevel level : levels.values()) {
+			if (level.isEmpty()) {
+				continue;
+			}
+			if (first == null) {
+				first = level;
+			} else if (now - level.lastServedNanos > maxWaitNanos) {
+				// Starved below the highest busy priority
+				first = level;
+				break;
+			}
+		}
+		queuedTasks--;
+		return first.poll();
+	}
+
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Runnable task;
+					lock.lock();
+					try {
+						while ((task = next()) == null) {
+							if (isShutdown) {
+								return;
+							}
+							taskAvailable.awaitUninterruptibly();
+						}
+					} finally {
+						lock.unlock();
+					}
+					// Clear an interrupt aimed at the previous task
+					Thread.interrupted();
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						Thread current = Thread.currentThread();
+						current.getUncaughtExceptionHandler()
+								.uncaughtException(current, e);
+					}
+				}
+			} finally {
+				lock.lock();
+				try {
+					if (--runningWorkers == 0) {
+						terminated.signalAll();
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/*
+	 * One Group's queue into the pool. Its tags are guarded by the pool lock.
+	 */
+	public class TaskQueue extends AbstractExecutorService {
+		private final int priority;
+		private final int weight;
+		private final ArrayDeque<QueuedTask> tasks = new ArrayDeque<QueuedTask>();
+		private double lastFinishTag;
+
+		private TaskQueue(int priority, int weight) {
+			this.priority = priority;
+			this.weight = weight;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			enqueue(this, task);
+		}
+
+		// The pool's lifecycle belongs to its owner, not to a queue
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return new ArrayList<Runnable>();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return FairShareExecutor.this.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return FairShareExecutor.this.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit)
+				throws InterruptedException {
+			return FairShareExecutor.this.awaitTermination(timeout, unit);
+		}
+	}
+
+	private static class QueuedTask {
+		private final Runnable task;
+		private final double startTag;
+
+		QueuedTask(Runnable task, double startTag) {
+			this.task = task;
+			this.startTag = startTag;
+		}
+	}
+
+	/*
+	 * The busy queues of one priority, ordered by the start tag of the task
+	 * at the head of each.
+	 */
+	private static class PriorityLevel {
+		private final PriorityQueue<TaskQueue> busyQueues = new PriorityQueue<TaskQueue>(
+				11, new Comparator<TaskQueue>() {
+					@Override
+					public int compare(TaskQueue a, TaskQueue b) {
+						return Double.compare(a.tasks.peek().startTag,
+								b.tasks.peek().startTag);
+					}
+				});
+		private double virtualTime;
+		// Since the level last ran a task or became busy
+		private long lastServedNanos;
+
+		void add(TaskQueue queue, Runnable task) {
+			double startTag = Math.max(virtualTime, queue.lastFinishTag);
+			queue.lastFinishTag = startTag + 1.0 / queue.weight;
+			if (busyQueues.isEmpty()) {
+				lastServedNanos = System.nanoTime();
+			}
+			boolean wasIdle = queue.tasks.isEmpty();
+			queue.tasks.add(new QueuedTask(task, startTag));
+			if (wasIdle) {
+				busyQueues.add(queue);
+			}
+		}
+
+		boolean isEmpty() {
+			return busyQueues.isEmpty();
+		}
+
+		Runnable poll() {
+			TaskQueue queue = busyQueues.poll();
+			QueuedTask next = queue.tasks.poll();
+			virtualTime = next.startTag;
+			lastServedNanos = System.nanoTime();
+			if (!queue.tasks.isEmpty()) {
+				busyQueues.add(queue);
+			}
+			return next.task;
+		}
+
+		void drainTo(List<Runnable> unstarted) {
+			for (TaskQueue queue : busyQueues) {
+				for (QueuedTask queued : queue.tasks) {
+					unstarted.add(queued.task);
+				}
+				queue.tasks.clear();
+			}
+			busyQueues.clear();
+		}
+	}
+}
@@ -24,60 +24,262 @@ package org.softwareartisans.util.workgroup;
  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collector;
 
+import org.softwareartisans.util.workgroup.distributed.Coordinator;
+import org.softwareartisans.util.workgroup.journal.ResultJournal;
+import org.softwareartisans.util.workgroup.metrics.WorkgroupMetrics;
 import org.softwareartisans.util.workgroup.retry.ImmediateCounting;
 import org.softwareartisans.util.workgroup.retry.Retrier;
 import org.softwareartisans.util.workgroup.retry.TimedRetrierDecorator;
+import org.softwareartisans.util.workgroup.trace.EventRing;
 
 /* Group processes a set of given tasks, retying according to a
  * retry check policy. We use a decorated policy that adds a backoff
  * timer between task resubmissions to the executor. Retrying is handled
  * by a retry executor that dispatches retry processing to prevent
- * slowing the main thread in the retrier logic. If any worker fails
+ * slowing the task threads in the retrier logic. If any worker fails
  * to pass the retry checks, processing for the group is halted.
  * 
+ * Processing is driven by task completions: each finished task reports back
+ * on the thread that ran it, and the last one completes the Group's future.
+ * No thread waits on the Group unless the caller chooses to block in
+ * processGroup(). Cancelling the future cancels the tasks still in flight.
+ * 
+ * The backoff returned by the retry policy is waited out on the shared
+ * GroupTimer, so a task waiting to be retried does not hold a thread.
+ * The policy can be replaced through the GroupBuilder.
+ * 
+ * By default each Group creates its thread pools when processing starts and
+ * shuts them down when it ends. Executors supplied through the GroupBuilder
+ * or SpaceBuilder are shared: the Group only cancels its own outstanding work
+ * and leaves the executor's lifecycle to whoever created it.
+ * 
+ * Groups sharing a FairShareExecutor are dispatched by their priority and
+ * weight, so latency sensitive Groups run ahead of bulk Groups on the same
+ * threads without starving them.
+ * 
+ * Instead of a fixed pool size, a Group can limit its tasks in flight
+ * adaptively between a minimum and maximum, raising the limit while tasks
+ * stay fast and cutting it when they slow down or fail. Tasks over the limit
+ * wait in the Group, not in the executor.
+ * 
+ * A RateLimiter spaces out task starts, retries included, to stay within a
+ * service's quota. Starts over the rate are delayed on the Group's timer
+ * rather than holding a thread.
+ * 
+ * With a Coordinator, tasks run on worker processes, possibly on other
+ * hosts, instead of local threads. Each remote result or failure completes
+ * the task's future as a local run would, so retries, deadlines, hedging
+ * and limits work unchanged.
+ * 
+ * In virtual thread mode every task and retry worker gets its own virtual
+ * thread, optionally capped by a semaphore, which suits groups of blocking
+ * I/O tasks far better than a large platform thread pool.
+ * 
+ * Bookkeeping is constant time per completion: tasks are indexed by task id,
+ * futures carry their own task, and a counter tracks the tasks still
+ * outstanding.
+ * 
+ * A task can be given a deadline, after which it is cancelled and counted as
+ * a failure for the retry policy. With hedging, a task still running past a
+ * percentile of the Group's observed task latency gets a speculative second
+ * copy; whichever copy finishes first wins and the other is cancelled.
+ * 
+ * Task submits, starts, finishes, failures, retries and cancellations are
+ * always recorded to the process-wide EventRing, for tracing after the fact.
+ * 
+ * Optional WorkgroupMetrics record queue wait, run time, retries and Group
+ * duration. Without metrics every hook is skipped by a null check.
+ * 
+ * Groups too large to hold in memory can be fed lazily from an Iterator of
+ * callables. Only a bounded window of tasks is in flight at once, a new task
+ * being pulled from the source each time one completes, so the callables and
+ * futures held stay flat however long the source runs.
+ * 
+ * For very fine grained tasks the Group can run them in batches: one
+ * executor submission claims up to batchSize tasks, optionally stopping
+ * early once a time budget is spent. Each task in a batch still gets its
+ * own result slot and is retried on its own when it fails.
+ * 
+ * By default a Group waits for every task. A quorum Group completes as soon
+ * as enough tasks have succeeded, first success being a quorum of one, and
+ * a fail-fast Group fails on the first non-retryable error. Either way the
+ * tasks still running are cancelled and pending retries dropped at once.
+ * 
+ * Numeric Groups can be built from IntTasks, LongTasks or DoubleTasks instead
+ * of callables. Each result is written into its task's slot of a
+ * preallocated, optionally off-heap, primitive Result, so no result is
+ * boxed; the Result<T> returned by processGroup() is then empty.
+ * 
+ * A Group that only needs an aggregate can be processed with a Collector:
+ * each result is folded in as its task completes, into a few containers
+ * shared by the worker threads, instead of being kept for the Result.
+ * 
+ * Callables added with a key can be memoized in a ResultCache, shared across
+ * Groups, so a repeated idempotent task runs once and identical tasks in
+ * flight at the same time are coalesced.
+ * 
+ * In a Space with a ResultJournal each task result is journaled as it
+ * completes, and a resumed Group only runs the tasks missing from the
+ * journal. Groups fed from a task source or built from primitive tasks are
+ * not journaled and always run in full.
+ * 
  *  TODO: Refactor to additional classes: especially one for handling retries
- *  and another would be useful to wrap a custom exception transmitted to Group's
- *  main thread from the retrier thread. The exception should contain the
+ *  and another would be useful to wrap a custom exception completing the
+ *  Group's future from the retrier thread. The exception should contain the
  *  task and group ids.
  */
 public class Group<T> {
+	private static final EventRing eventRing = EventRing.getDefault();
+	// Ids are per Group, not per builder, since a builder can build several
+	private static final AtomicInteger groupIndexCounter = new AtomicInteger(0);
+	private static final int HEDGE_MIN_SAMPLES = 20;
+	private static final int HEDGE_REFRESH_SAMPLES = 16;
+
 	private final int groupIndex;
-	private final List<Task<T>> tasks = new ArrayList<Task<T>>();
-	private final Retrier retryCheckStrategy = new TimedRetrierDecorator(
-			new ImmediateCounting());
-
-	private final Map<Future<T>, Integer> futureMap = new HashMap<Future<T>, Integer>();
-	private final ExecutorService retryExecutor = Executors
-			.newCachedThreadPool();
-	private final ExecutorService ecsExecutorService;
-	private final ExecutorCompletionService<T> ecs;
-	private IllegalStateException retryException;
-	private static boolean isRetryExceptionSet = false;
+	private final List<Task<T>> tasks;
+	private final AtomicInteger remainingTasks;
+	private final Iterator<? extends Callable<T>> taskSource;
+	private final int maxInFlight;
+	private final boolean retainResults;
+	private final Retrier retryCheckStrategy;
+	private final TaskFuture.Listener<T> completionHandler = new CompletionHandler();
+	private final CompletableFuture<Result<T>> groupFuture = new CompletableFuture<Result<T>>();
+	private final AtomicBoolean isStarted = new AtomicBoolean(false);
+
+	private final int threadPoolSize;
+	private final int priority;
+	private final int weight;
+	private final int quorum;
+	private final List<T> quorumResults = new ArrayList<T>();
+	private final AtomicInteger abandonedTasks = new AtomicInteger(0);
+	private final List<Class<? extends Throwable>> nonRetryable;
+
+	// Adaptive concurrency only - guarded by limitedTasks
+	private final ConcurrencyLimit concurrencyLimit;
+	private final ArrayDeque<Task<T>> limitedTasks = new ArrayDeque<Task<T>>();
+	private int limitedInFlight = 0;
+	private final boolean useVirtualThreads;
+	// Dropped when the Group's own pool already caps concurrency
+	private Semaphore concurrencyPermits;
+	private final int batchSize;
+	private final long batchTimeBudgetNanos;
+	private final AtomicInteger batchCursor = new AtomicInteger(0);
+	private final long taskTimeout;
+	private final double hedgePercentile;
+	private final LatencyHistogram taskLatencies = new LatencyHistogram();
+	private volatile long hedgeDelayNanos = 0;
+	private ExecutorService retryExecutor;
+	private ExecutorService taskExecutorService;
+	private boolean ownsRetryExecutor;
+	private boolean ownsTaskExecutorService;
+	private final ResultListener<T> resultListener;
+	private volatile boolean isFinished = false;
+	private WorkgroupMetrics metrics;
+	private ResultCache<T> resultCache;
+	private RateLimiter rateLimiter;
+	private Coordinator coordinator;
+	private Reduction<? super T, ?, ?> reduction;
+	private ResultJournal<T> journal;
+	private int journalGroupId;
+	private long startNanos;
+
+	// Numeric Groups only - at most one is set
+	private final IntResult intResult;
+	private final LongResult longResult;
+	private final DoubleResult doubleResult;
+
+	// Lazily fed groups only - guarded by taskSource
+	private final Set<Task<T>> sourcedTasks = new HashSet<Task<T>>();
+	private final List<T> sourcedResults = new ArrayList<T>();
+	private int nextTaskId = 0;
+	private boolean isSourceExhausted = false;
+	private boolean isFeeding = false;
 
 	private Group(GroupBuilder<T> builder) {
+		tasks = new ArrayList<Task<T>>(builder.callables.size()
+				+ builder.intTasks.size() + builder.longTasks.size()
+				+ builder.doubleTasks.size());
 		int count = 0;
 		for (Callable<T> callable : builder.callables) {
-			Task<T> t = new Task<T>(count++, callable);
+			Task<T> t = new Task<T>(count, callable, builder.taskKeys
+					.get(count++));
 			tasks.add(t);
 		}
-		groupIndex = builder.groupIndex;
 
-		ecsExecutorService = Executors
-				.newFixedThreadPool(builder.threadPoolSize);
-		ecs = new ExecutorCompletionService<T>(ecsExecutorService);
+		intResult = builder.intTasks.isEmpty() ? null : new IntResult(
+				builder.intTasks.size(), builder.isOffHeapResults);
+		for (IntTask intTask : builder.intTasks) {
+			tasks.add(new Task<T>(count, intSlot(count++, intTask)));
+		}
+		longResult = builder.longTasks.isEmpty() ? null : new LongResult(
+				builder.longTasks.size(), builder.isOffHeapResults);
+		for (LongTask longTask : builder.longTasks) {
+			tasks.add(new Task<T>(count, longSlot(count++, longTask)));
+		}
+		doubleResult = builder.doubleTasks.isEmpty() ? null
+				: new DoubleResult(builder.doubleTasks.size(),
+						builder.isOffHeapResults);
+		for (DoubleTask doubleTask : builder.doubleTasks) {
+			tasks.add(new Task<T>(count, doubleSlot(count++, doubleTask)));
+		}
+		taskSource = builder.taskSource;
+		maxInFlight = builder.maxInFlight;
+		retainResults = builder.retainResults;
+
+		// A lazy source counts as one outstanding task until it runs dry
+		remainingTasks = new AtomicInteger(taskSource != null ? 1 : tasks
+				.size());
+		groupIndex = groupIndexCounter.getAndAdd(1);
+		retryCheckStrategy = builder.retrier != null ? builder.retrier
+				: new TimedRetrierDecorator(new ImmediateCounting());
+		resultListener = builder.resultListener;
+		threadPoolSize = builder.threadPoolSize;
+		priority = builder.priority;
+		weight = builder.weight;
+		quorum = builder.quorum;
+		nonRetryable = builder.nonRetryable;
+		concurrencyLimit = builder.maxConcurrencyLimit > 0 ? new ConcurrencyLimit(
+				builder.minConcurrencyLimit, builder.maxConcurrencyLimit)
+				: null;
+		useVirtualThreads = builder.useVirtualThreads;
+		concurrencyPermits = builder.maxConcurrency > 0 ? new Semaphore(
+				builder.maxConcurrency) : null;
+		batchSize = builder.batchSize;
+		taskTimeout = builder.taskTimeout;
+		hedgePercentile = builder.hedgePercentile;
+		batchTimeBudgetNanos = TimeUnit.MILLISECONDS
+				.toNanos(builder.batchTimeBudget);
+		taskExecutorService = builder.executorService;
+		retryExecutor = builder.retryExecutorService;
+		metrics = builder.metrics;
+		resultCache = builder.resultCache;
+		rateLimiter = builder.rateLimiter;
+		coordinator = builder.coordinator;
 	}
 
 	/*
@@ -86,124 +288,1051 @@ public class Group<T> {
 	 * Process group set by submitting the group's work to a threadpool and then
 	 * retrying any failed tasks as many times as the retry policy permits.
 	 * 
-	 * @throws IllegalArgumentException if the Callable is interrupted. This
-	 * occurs if retries max out.
+	 * @throws IllegalStateException if retries max out or the calling thread
+	 * is interrupted, which cancels the Group.
 	 * 
 	 * @returns A list of results in the order the group tasks were provided.
 	 */
 	public Result<T> processGroup() {
+		return await(processGroupAsync());
+	}
+
+	/*
+	 * Process the Group, folding task results into the collector as they
+	 * complete instead of collecting them into a Result. Results are folded
+	 * in completion order. Not available to quorum or primitive Groups.
+	 * 
+	 * @throws IllegalStateException as processGroup(), or if the Group has
+	 * already been processed
+	 */
+	public <R> R processGroup(Collector<? super T, ?, R> collector) {
+		return await(processGroupAsync(collector));
+	}
+
+	// As processGroupAsync(), reducing the results with the collector
+	public <A, R> CompletableFuture<R> processGroupAsync(
+			Collector<? super T, A, R> collector) {
+		Reduction<T, A, R> reduction = new Reduction<T, A, R>(collector);
+		reduceInto(reduction);
+		return reduction.reduce(processGroupAsync());
+	}
+
+	private <V> V await(CompletableFuture<V> future) {
 		try {
-			submitTasksForProcessing(ecs);
-			if (processAsyncTaskResults(ecs)) {
-				return getResults();
+			return future.get();
+		} catch (InterruptedException interrupt) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Group: " + groupIndex
+					+ " interrupted", interrupt);
+		} catch (ExecutionException e) {
+			throw asRuntimeException(e.getCause());
+		}
+	}
+
+	/*
+	 * Start processing without blocking the caller. The future completes on
+	 * the worker thread that finishes the last task, or exceptionally with
+	 * the retry policy's IllegalStateException once retries max out.
+	 * Cancelling it cancels the tasks still in flight. A Group is processed
+	 * once; later calls return the same future.
+	 */
+	public CompletableFuture<Result<T>> processGroupAsync() {
+		if (isStarted.compareAndSet(false, true)) {
+			startNanos = System.nanoTime();
+			groupFuture.whenComplete(new BiConsumer<Result<T>, Throwable>() {
+				@Override
+				public void accept(Result<T> result, Throwable failure) {
+					finish(failure != null);
+					if (metrics != null) {
+						metrics.groupFinished(groupIndex, getTaskCount(),
+								System.nanoTime() - startNanos, failure == null);
+					}
+				}
+			});
+			try {
+				startExecutors();
+				if (taskSource != null) {
+					feedTasks();
+				} else {
+					int resumedTasks = resumeFromJournal();
+					submitTasksForProcessing();
+					if (resumedTasks == tasks.size()) {
+						groupFuture.complete(getResults());
+					}
+				}
+			} catch (RuntimeException e) {
+				groupFuture.completeExceptionally(e);
+			}
+		}
+		return groupFuture;
+	}
+
+	/*
+	 * Fold this Group's results into the reduction instead of keeping them.
+	 * Used by Space to reduce Groups that no other Group depends on.
+	 */
+	void reduceInto(Reduction<? super T, ?, ?> reduction) {
+		if (isStarted.get()) {
+			throw new IllegalStateException("Group: " + groupIndex
+					+ " has already been processed");
+		}
+		if (quorum > 0 || intResult != null || longResult != null
+				|| doubleResult != null) {
+			throw new IllegalStateException("Group: " + groupIndex
+					+ " cannot be reduced with a collector");
+		}
+		this.reduction = reduction;
+	}
+
+	/*
+	 * Used by Space to hand its shared executors to Groups that were not
+	 * built with their own.
+	 */
+	void shareExecutors(ExecutorService executorService,
+			ExecutorService retryExecutorService) {
+		if (taskExecutorService == null) {
+			taskExecutorService = executorService;
+		}
+		if (retryExecutor == null) {
+			retryExecutor = retryExecutorService;
+		}
+	}
+
+	/*
+	 * The results of a Group of IntTasks, filled in as the tasks complete.
+	 * 
+	 * @throws IllegalStateException if the Group was not built from IntTasks
+	 */
+	public IntResult getIntResult() {
+		if (intResult == null) {
+			throw new IllegalStateException("Group: " + groupIndex
+					+ " has no int tasks");
+		}
+		return intResult;
+	}
+
+	public LongResult getLongResult() {
+		if (longResult == null) {
+			throw new IllegalStateException("Group: " + groupIndex
+					+ " has no long tasks");
+		}
+		return longResult;
+	}
+
+	public DoubleResult getDoubleResult() {
+		if (doubleResult == null) {
+			throw new IllegalStateException("Group: " + groupIndex
+					+ " has no double tasks");
+		}
+		return doubleResult;
+	}
+
+	/*
+	 * Used by Space to hand its metrics to Groups that were not built with
+	 * their own.
+	 */
+	void shareMetrics(WorkgroupMetrics spaceMetrics) {
+		if (metrics == null) {
+			metrics = spaceMetrics;
+		}
+	}
+
+	// As shareMetrics, for the Space's ResultCache
+	void shareResultCache(ResultCache<T> spaceResultCache) {
+		if (resultCache == null) {
+			resultCache = spaceResultCache;
+		}
+	}
+
+	// As shareMetrics, for the Space's RateLimiter
+	void shareRateLimiter(RateLimiter spaceRateLimiter) {
+		if (rateLimiter == null) {
+			rateLimiter = spaceRateLimiter;
+		}
+	}
+
+	// As shareMetrics, for the Space's Coordinator; batched and primitive
+	// Groups stay local
+	void shareCoordinator(Coordinator spaceCoordinator) {
+		if (coordinator == null && batchSize <= 1 && intResult == null
+				&& longResult == null && doubleResult == null) {
+			coordinator = spaceCoordinator;
+		}
+	}
+
+	/*
+	 * Used by Space to journal this Group's task results under its position
+	 * in the Space, which stays the same when the Space is rebuilt to resume.
+	 */
+	void shareJournal(ResultJournal<T> spaceJournal, int groupId) {
+		if (isJournaled()) {
+			journal = spaceJournal;
+			journalGroupId = groupId;
+		}
+	}
+
+	boolean isJournaled() {
+		return taskSource == null && quorum == 0 && intResult == null
+				&& longResult == null && doubleResult == null;
+	}
+
+	// Rethrow the cause of a failed future without wrapping it again
+	static RuntimeException asRuntimeException(Throwable cause) {
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IllegalStateException(cause);
+	}
+
+	private void startExecutors() {
+		if (taskExecutorService == null) {
+			if (useVirtualThreads) {
+				int maxConcurrency = concurrencyPermits != null ? concurrencyPermits
+						.availablePermits() : 0;
+				taskExecutorService = VirtualThreads
+						.newExecutor(maxConcurrency);
+				if (!VirtualThreads.isAvailable()) {
+					concurrencyPermits = null;
+				}
 			} else {
-				throw retryException;
+				// An adaptive limit may use a thread for each task it allows
+				taskExecutorService = Executors
+						.newFixedThreadPool(concurrencyLimit != null ? concurrencyLimit
+								.getMaxLimit() : threadPoolSize);
 			}
-		} finally {
-			retryExecutor.shutdownNow();
-			ecsExecutorService.shutdownNow();
+			ownsTaskExecutorService = true;
+		} else if (taskExecutorService instanceof FairShareExecutor) {
+			taskExecutorService = ((FairShareExecutor) taskExecutorService)
+					.newQueue(priority, weight);
+		}
+		if (retryExecutor == null) {
+			retryExecutor = useVirtualThreads ? VirtualThreads.newExecutor()
+					: Executors.newCachedThreadPool();
+			ownsRetryExecutor = true;
 		}
 	}
 
-	private void submitTasksForProcessing(CompletionService<T> ecs) {
-		for (Task<T> t : tasks) {
-			Future<T> future = ecs.submit(t.getCallable());
-			futureMap.put(future, t.getTaskId());
+	private void finish(boolean isFailed) {
+		isFinished = true;
+		// A quorum can be reached with tasks still running or awaiting retry
+		if (isFailed || remainingTasks.get() > 0) {
+			cancelOutstandingTasks();
 		}
+		stopExecutors();
+		retryCheckStrategy.release(groupIndex);
 	}
 
-	private boolean processAsyncTaskResults(final CompletionService<T> ecs) {
-		while (getIncompleteTasks().size() > 0) {
-			Future<T> future;
-			try {
-				// blocks if no jobs are present to take
-				future = ecs.take();
-				int taskId = futureMap.get(future);
+	// Cancel every running copy of a task, its hedge as well as its own
+	private void cancelOutstandingTasks() {
+		for (Task<T> t : getOutstandingTasks()) {
+			Future<?> future = t.getFuture();
+			if (future != null) {
+				future.cancel(true);
+			}
+			Future<?> hedgeFuture = t.getHedgeFuture();
+			if (hedgeFuture != null) {
+				hedgeFuture.cancel(true);
+			}
+		}
+	}
 
-				try {
-					T result = future.get();
-					Task<T> task = getTask(taskId);
-					task.setComplete(true);
-					task.setResult(result);
-				} catch (ExecutionException e) {
-					handleRetries(groupIndex, ecs, taskId);
-				} finally {
-					futureMap.remove(future);
+	int getTaskCount() {
+		if (taskSource != null) {
+			synchronized (taskSource) {
+				return nextTaskId;
+			}
+		}
+		return tasks.size();
+	}
+
+	private List<Task<T>> getOutstandingTasks() {
+		if (taskSource != null) {
+			synchronized (taskSource) {
+				return new ArrayList<Task<T>>(sourcedTasks);
+			}
+		}
+		return tasks;
+	}
+
+	// Shared executors outlive the Group, so only shut down our own
+	private void stopExecutors() {
+		if (ownsRetryExecutor) {
+			retryExecutor.shutdown();
+		}
+		if (ownsTaskExecutorService) {
+			taskExecutorService.shutdown();
+		}
+	}
+
+	/*
+	 * Complete the tasks whose results are already in the journal.
+	 * 
+	 * @returns the number of tasks resumed
+	 */
+	private int resumeFromJournal() {
+		if (journal == null) {
+			return 0;
+		}
+		int resumed = 0;
+		for (Map.Entry<Integer, T> journaled : journal.getTaskResults(
+				journalGroupId).entrySet()) {
+			int taskId = journaled.getKey();
+			if (taskId < tasks.size() && getTask(taskId).markComplete()) {
+				if (reduction != null) {
+					reduction.accumulate(journaled.getValue());
+				} else {
+					getTask(taskId).setResult(journaled.getValue());
 				}
-				// Interrupt when retries are maxed out
-			} catch (InterruptedException interrupt) {
-				return false;
+				remainingTasks.decrementAndGet();
+				resumed++;
 			}
 		}
+		return resumed;
+	}
 
-		return true;
+	private void submitTasksForProcessing() {
+		if (batchSize > 1) {
+			int batches = (tasks.size() + batchSize - 1) / batchSize;
+			for (int i = 0; i < batches; i++) {
+				submitBatch(false);
+			}
+		} else {
+			for (Task<T> t : tasks) {
+				if (!t.isComplete()) {
+					submitTask(t);
+				}
+			}
+		}
 	}
 
-	// handle retries in separate thread to avoid slowing the main thread
-	private void handleRetries(final int groupIndex,
-			final CompletionService<T> ecs, int taskId)
-			throws InterruptedException {
-		Runnable retryTask = new RetryWorker(taskId, Thread.currentThread());
+	/*
+	 * Top the window of in-flight tasks back up from the source. Callables
+	 * are pulled under the source's lock but submitted outside it, so an
+	 * executor that runs tasks inline cannot re-enter while it is held.
+	 * 
+	 * Only one thread feeds at a time. A call made while it feeds, e.g. by a
+	 * task that completed inline as it was submitted, returns at once: the
+	 * room it made is seen when the loop next checks under the lock, so the
+	 * stack does not grow with each task fed.
+	 */
+	private void feedTasks() {
+		synchronized (taskSource) {
+			if (isFeeding) {
+				return;
+			}
+			isFeeding = true;
+		}
+		try {
+			while (true) {
+				List<Task<T>> fed = new ArrayList<Task<T>>();
+				boolean isExhausted = false;
+				RuntimeException sourceFailure = null;
+				synchronized (taskSource) {
+					try {
+						while (!isSourceExhausted && !isFinished
+								&& sourcedTasks.size() < maxInFlight) {
+							if (!taskSource.hasNext()) {
+								isSourceExhausted = isExhausted = true;
+								break;
+							}
+							Task<T> task = new Task<T>(nextTaskId++,
+									taskSource.next());
+							sourcedTasks.add(task);
+							if (isRetainingSourcedResults()) {
+								sourcedResults.add(null);
+							}
+							remainingTasks.incrementAndGet();
+							fed.add(task);
+						}
+					} catch (RuntimeException e) {
+						sourceFailure = e;
+					}
+					if (sourceFailure != null || fed.isEmpty() && !isExhausted) {
+						isFeeding = false;
+					}
+				}
+				if (sourceFailure != null) {
+					groupFuture.completeExceptionally(new IllegalStateException(
+							"Task source failed, in Group: " + groupIndex,
+							sourceFailure));
+					return;
+				}
+				if (fed.isEmpty() && !isExhausted) {
+					return;
+				}
 
-		retryExecutor.submit(retryTask);
+				for (Task<T> task : fed) {
+					submitTask(task);
+				}
+				if (isExhausted && remainingTasks.decrementAndGet() == 0) {
+					groupFuture.complete(getResults());
+				}
+			}
+		} catch (RuntimeException e) {
+			synchronized (taskSource) {
+				isFeeding = false;
+			}
+			throw e;
+		} catch (Error e) {
+			synchronized (taskSource) {
+				isFeeding = false;
+			}
+			throw e;
+		}
 	}
 
-	private List<Task<T>> getIncompleteTasks() {
-		List<Task<T>> incompleteTasks = new ArrayList<Task<T>>();
-		for (Task<T> t : tasks) {
-			if (!t.isComplete()) {
-				incompleteTasks.add(t);
+	private void completeSourcedTask(Task<T> task, T result) {
+		synchronized (taskSource) {
+			sourcedTasks.remove(task);
+			if (isRetainingSourcedResults()) {
+				sourcedResults.set(task.getTaskId(), result);
 			}
 		}
-		return incompleteTasks;
+		feedTasks();
 	}
 
-	private Task<T> getTask(int taskId) {
-		for (Task<T> t : tasks) {
-			if (t.getTaskId() == taskId) {
-				return t;
+	/*
+	 * @param hasPermit the batch's first task was already given a permit by
+	 * the RateLimiter
+	 */
+	private void submitBatch(boolean hasPermit) {
+		TaskBatch batch = new TaskBatch(hasPermit);
+		if (isFinished) {
+			return;
+		}
+		try {
+			taskExecutorService.execute(batch.future);
+		} catch (RejectedExecutionException e) {
+			groupFuture.completeExceptionally(new IllegalStateException(
+					"Task batch rejected by executor, in Group: " + groupIndex,
+					e));
+		}
+	}
+
+	private boolean isRetainingSourcedResults() {
+		return retainResults && reduction == null;
+	}
+
+	private void submitTask(Task<T> task) {
+		if (concurrencyLimit != null) {
+			synchronized (limitedTasks) {
+				if (limitedInFlight >= concurrencyLimit.getLimit()) {
+					limitedTasks.add(task);
+					return;
+				}
+				limitedInFlight++;
+			}
+		}
+		task.setHedgeFuture(null);
+		submitCopy(task, false);
+	}
+
+	/*
+	 * A task's own execution finished under the adaptive limit. Feed its
+	 * outcome to the limit, unless it was cancelled, and start the waiting
+	 * tasks the limit now allows.
+	 */
+	private void limitedTaskDone(long runNanos, boolean isSample,
+			boolean isFailed) {
+		List<Task<T>> admitted = new ArrayList<Task<T>>();
+		synchronized (limitedTasks) {
+			if (isSample) {
+				concurrencyLimit.onSample(runNanos, isFailed, limitedInFlight);
+			}
+			limitedInFlight--;
+			while (!isFinished && !limitedTasks.isEmpty()
+					&& limitedInFlight < concurrencyLimit.getLimit()) {
+				admitted.add(limitedTasks.poll());
+				limitedInFlight++;
+			}
+		}
+		for (Task<T> task : admitted) {
+			task.setHedgeFuture(null);
+			submitCopy(task, false);
+		}
+	}
+
+	private void submitCopy(Task<T> task, boolean isHedge) {
+		TaskFuture<T> future = new TaskFuture<T>(task, taskCallable(task),
+				completionHandler, isHedge);
+		if (isHedge) {
+			task.setHedgeFuture(future);
+		} else {
+			task.setFuture(future);
+		}
+		task.copyStarted();
+
+		// finish() may have passed this task while cancelling
+		if (isFinished) {
+			future.cancel(false);
+			return;
+		}
+		long delay = rateLimiter != null ? rateLimiter.reserve() : 0;
+		if (delay > 0) {
+			future.setDispatch(GroupTimer.schedule(new Dispatch(future,
+					isHedge), delay, TimeUnit.NANOSECONDS));
+		} else {
+			dispatch(future, isHedge);
+		}
+	}
+
+	private void dispatch(TaskFuture<T> future, boolean isHedge) {
+		Task<T> task = future.getTask();
+		if (!future.markSubmitted()) {
+			return;
+		}
+		trace(EventRing.SUBMIT, task);
+		if (metrics != null) {
+			metrics.taskSubmitted();
+		}
+		try {
+			if (coordinator != null) {
+				future.runRemotely(coordinator.submit(task.getCallable()));
+			} else {
+				taskExecutorService.execute(future);
+			}
+		} catch (RejectedExecutionException e) {
+			groupFuture.completeExceptionally(new IllegalStateException(
+					"Task: " + task.getTaskId()
+							+ " rejected by executor, in Group: " + groupIndex,
+					e));
+			return;
+		}
+		scheduleTimers(future, isHedge);
+	}
+
+	private void scheduleTimers(TaskFuture<T> future, boolean isHedge) {
+		if (taskTimeout > 0) {
+			future.setDeadline(GroupTimer.schedule(new Deadline(future),
+					taskTimeout, TimeUnit.MILLISECONDS));
+		}
+		long hedgeDelay = hedgeDelayNanos;
+		if (!isHedge && hedgeDelay > 0) {
+			future.setHedge(GroupTimer.schedule(new Hedge(future), hedgeDelay,
+					TimeUnit.NANOSECONDS));
+		}
+	}
+
+	// Track task latency once enough samples exist to pick a hedge delay
+	private void recordLatency(long nanos) {
+		taskLatencies.record(nanos);
+		long count = taskLatencies.getCount();
+		if (count == HEDGE_MIN_SAMPLES) {
+			hedgeDelayNanos = taskLatencies.getPercentile(hedgePercentile);
+			scheduleOutstandingHedges();
+		} else if (count > HEDGE_MIN_SAMPLES
+				&& count % HEDGE_REFRESH_SAMPLES == 0) {
+			hedgeDelayNanos = taskLatencies.getPercentile(hedgePercentile);
+		}
+	}
+
+	// Tasks submitted before the first estimate have no hedge timer yet
+	private void scheduleOutstandingHedges() {
+		for (Task<T> t : getOutstandingTasks()) {
+			Future<?> future = t.getFuture();
+			if (!t.isComplete() && future instanceof TaskFuture
+					&& !future.isDone()) {
+				@SuppressWarnings("unchecked")
+				TaskFuture<T> taskFuture = (TaskFuture<T>) future;
+				taskFuture.setHedge(GroupTimer.schedule(new Hedge(taskFuture),
+						hedgeDelayNanos, TimeUnit.NANOSECONDS));
 			}
 		}
-		throw new IllegalStateException("Could not find task: " + taskId);
+	}
+
+	private Callable<T> taskCallable(Task<T> task) {
+		Callable<T> callable = task.getCallable();
+		if (resultCache != null && task.getTaskKey() != null) {
+			callable = resultCache.wrap(task.getTaskKey(), callable);
+		}
+		if (concurrencyPermits == null) {
+			return callable;
+		}
+		return new VirtualThreads.BoundedCallable<T>(callable,
+				concurrencyPermits);
+	}
+
+	// Adapt a primitive task to the engine, writing its result to its slot
+	private Callable<T> intSlot(final int taskId, final IntTask intTask) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				intResult.set(taskId, intTask.call());
+				return null;
+			}
+		};
+	}
+
+	private Callable<T> longSlot(final int taskId, final LongTask longTask) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				longResult.set(taskId, longTask.call());
+				return null;
+			}
+		};
+	}
+
+	private Callable<T> doubleSlot(final int taskId,
+			final DoubleTask doubleTask) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				doubleResult.set(taskId, doubleTask.call());
+				return null;
+			}
+		};
+	}
+
+	private void publishResult(int taskId, T result) {
+		if (resultListener != null) {
+			resultListener.onResult(groupIndex, taskId, result);
+		}
+	}
+
+	private void taskFailed(Task<T> task, Throwable failure) {
+		if (failure != null && isNonRetryable(failure)) {
+			groupFuture.completeExceptionally(new IllegalStateException(
+					"Task: " + task.getTaskId()
+							+ " failed with a non-retryable error, in Group: "
+							+ groupIndex, failure));
+			return;
+		}
+		handleRetries(task);
+	}
+
+	private boolean isNonRetryable(Throwable failure) {
+		for (Class<? extends Throwable> type : nonRetryable) {
+			if (type.isInstance(failure)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * In a quorum Group a task out of retries is dropped, failing the Group
+	 * only once too few tasks are left to reach the quorum.
+	 */
+	private void retriesExhausted(IllegalStateException e) {
+		if (quorum == 0) {
+			groupFuture.completeExceptionally(e);
+		} else if (tasks.size() - abandonedTasks.incrementAndGet() < quorum) {
+			groupFuture.completeExceptionally(new IllegalStateException(
+					"Quorum of " + quorum + " unreachable, in Group: "
+							+ groupIndex, e));
+		}
+	}
+
+	private void countTowardsQuorum(T result) {
+		Result<T> quorumResult = null;
+		synchronized (quorumResults) {
+			if (quorumResults.size() < quorum) {
+				quorumResults.add(result);
+				if (quorumResults.size() == quorum) {
+					quorumResult = new Result<T>(quorum);
+					for (T r : quorumResults) {
+						quorumResult.addResult(r);
+					}
+				}
+			}
+		}
+		if (quorumResult != null) {
+			groupFuture.complete(quorumResult);
+		}
+	}
+
+	// handle retries in separate thread to avoid slowing the task threads
+	private void handleRetries(Task<T> task) {
+		try {
+			retryExecutor.execute(new RetryWorker(task));
+		} catch (RejectedExecutionException e) {
+			groupFuture.completeExceptionally(new IllegalStateException(
+					"Task: " + task.getTaskId() + " retry rejected, in Group: "
+							+ groupIndex, e));
+		}
+	}
+
+	private void trace(byte type, Task<T> task) {
+		eventRing.record(type, groupIndex, task.getTaskId());
+	}
+
+	// Task ids are assigned in order, so the id is the index
+	private Task<T> getTask(int taskId) {
+		if (taskId < 0 || taskId >= tasks.size()) {
+			throw new IllegalStateException("Could not find task: " + taskId);
+		}
+		return tasks.get(taskId);
 	}
 
 	private Result<T> getResults() {
-		Result<T> results = new Result<T>();
+		if (taskSource != null) {
+			synchronized (taskSource) {
+				Result<T> results = new Result<T>(sourcedResults.size());
+				for (T result : sourcedResults) {
+					results.addResult(result);
+				}
+				return results;
+			}
+		}
+
+		// Numeric results are only in the primitive Result, reduced results
+		// only in the reduction
+		if (intResult != null || longResult != null || doubleResult != null
+				|| reduction != null) {
+			return new Result<T>(0);
+		}
+
+		Result<T> results = new Result<T>(tasks.size());
 		for (Task<T> t : tasks) {
 			results.addResult(t.getResult());
 		}
 		return results;
 	}
 
-	private synchronized void setRetryException(IllegalStateException e) {
-		if (!isRetryExceptionSet) {
-			this.retryException = e;
-			isRetryExceptionSet = true;
+	/*
+	 * Runs on the task's own thread as soon as it finishes. The last task to
+	 * complete completes the Group.
+	 */
+	private class CompletionHandler implements TaskFuture.Listener<T> {
+		@Override
+		public void taskStarted(TaskFuture<T> future) {
+			trace(EventRing.START, future.getTask());
+		}
+
+		@Override
+		public void taskDone(TaskFuture<T> future) {
+			future.cancelTimers();
+			Task<T> task = future.getTask();
+			int runningCopies = task.copyFinished();
+
+			T result;
+			try {
+				result = future.get();
+			} catch (ExecutionException e) {
+				trace(EventRing.FAILURE, task);
+				executionFinished(future, false);
+				limitDone(future, true, true);
+				copyFailed(task, runningCopies, e.getCause());
+				return;
+			} catch (CancellationException e) {
+				trace(future.isTimedOut() ? EventRing.FAILURE : EventRing.CANCEL,
+						task);
+				if (future.isTimedOut()) {
+					executionFinished(future, false);
+				} else if (metrics != null) {
+					metrics.taskCancelled(future.wasSubmitted());
+				}
+				limitDone(future, future.isTimedOut(), true);
+				// Past its deadline, otherwise cancelled as the loser of a
+				// hedge or while the Group was finishing
+				if (future.isTimedOut()) {
+					copyFailed(task, runningCopies, null);
+				}
+				return;
+			} catch (InterruptedException e) {
+				// Not reached - the future is already done
+				Thread.currentThread().interrupt();
+				return;
+			}
+			trace(EventRing.FINISH, task);
+			executionFinished(future, true);
+			limitDone(future, true, false);
+			if (isFinished) {
+				return;
+			}
+			if (hedgePercentile > 0) {
+				recordLatency(future.getRunNanos());
+			}
+			taskSucceeded(task, result);
+		}
+
+		private void executionFinished(TaskFuture<T> future, boolean isSuccess) {
+			if (metrics != null) {
+				metrics.taskFinished(groupIndex, future.getTask().getTaskId(),
+						future.getQueueNanos(), future.getRunNanos(), isSuccess);
+			}
+		}
+
+		private void limitDone(TaskFuture<T> future, boolean isSample,
+				boolean isFailed) {
+			if (concurrencyLimit != null && !future.isHedge()) {
+				limitedTaskDone(future.getRunNanos(), isSample, isFailed);
+			}
+		}
+
+		// Leave a failure to a hedged copy that is still running
+		private void copyFailed(Task<T> task, int runningCopies,
+				Throwable failure) {
+			if (!isFinished && runningCopies == 0 && !task.isComplete()) {
+				taskFailed(task, failure);
+			}
+		}
+	}
+
+	private void taskSucceeded(Task<T> task, T result) {
+		if (!task.markComplete()) {
+			return;
+		}
+		try {
+			retryCheckStrategy.recordSuccess(groupIndex, task.getTaskId());
+			Future<?> hedgeFuture = task.getHedgeFuture();
+			if (hedgeFuture != null) {
+				task.getFuture().cancel(true);
+				hedgeFuture.cancel(true);
+				task.setHedgeFuture(null);
+			}
+			task.setFuture(null);
+			if (journal != null) {
+				journal.recordTask(journalGroupId, task.getTaskId(), result);
+			}
+			publishResult(task.getTaskId(), result);
+			if (quorum > 0) {
+				countTowardsQuorum(result);
+				return;
+			}
+			if (reduction != null) {
+				reduction.accumulate(result);
+			}
+			if (taskSource != null) {
+				completeSourcedTask(task, result);
+			} else if (reduction == null) {
+				task.setResult(result);
+			}
+
+			if (remainingTasks.decrementAndGet() == 0) {
+				groupFuture.complete(getResults());
+			}
+		} catch (IOException e) {
+			groupFuture.completeExceptionally(new IllegalStateException(
+					"Task: " + task.getTaskId()
+							+ " could not be journaled, in Group: "
+							+ groupIndex, e));
+		} catch (RuntimeException e) {
+			// A failing result listener would otherwise stall the Group
+			groupFuture.completeExceptionally(e);
+		}
+	}
+
+	/*
+	 * One executor submission running several tasks back to back. Tasks are
+	 * claimed from a shared cursor, so a batch that stops early on its time
+	 * budget just hands the cursor on to a fresh batch. Failed tasks leave
+	 * the batch and are retried individually.
+	 */
+	private class TaskBatch implements Runnable {
+		private final FutureTask<Void> future = new FutureTask<Void>(this,
+				null);
+		private final long submitNanos = System.nanoTime();
+		private final boolean hasPermit;
+
+		TaskBatch(boolean hasPermit) {
+			this.hasPermit = hasPermit;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			for (int count = 0; count < batchSize; count++) {
+				if (isFinished) {
+					return;
+				}
+				if (count > 0 && batchTimeBudgetNanos > 0
+						&& System.nanoTime() - start >= batchTimeBudgetNanos) {
+					if (batchCursor.get() < tasks.size()) {
+						submitBatch(false);
+					}
+					return;
+				}
+				if (!(count == 0 && hasPermit) && !takePermit()) {
+					return;
+				}
+
+				int taskId = batchCursor.getAndIncrement();
+				if (taskId >= tasks.size()) {
+					return;
+				}
+				Task<T> task = getTask(taskId);
+				if (!task.isComplete()) {
+					runTask(task);
+				}
+			}
+		}
+
+		/*
+		 * Over the rate, the rest of the batch is handed to a new batch
+		 * started once its permit is due, instead of sleeping on this thread.
+		 */
+		private boolean takePermit() {
+			if (rateLimiter == null || batchCursor.get() >= tasks.size()) {
+				return true;
+			}
+			long delay = rateLimiter.reserve();
+			if (delay == 0) {
+				return true;
+			}
+			GroupTimer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					submitBatch(true);
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+			return false;
+		}
+
+		private void runTask(Task<T> task) {
+			task.setFuture(future);
+			long taskStart = metrics != null ? System.nanoTime() : 0;
+			trace(EventRing.START, task);
+			T result;
+			try {
+				result = taskCallable(task).call();
+			} catch (Throwable failure) {
+				trace(EventRing.FAILURE, task);
+				executionFinished(task, taskStart, false);
+				if (!isFinished) {
+					taskFailed(task, failure);
+				}
+				return;
+			}
+			trace(EventRing.FINISH, task);
+			executionFinished(task, taskStart, true);
+			taskSucceeded(task, result);
+		}
+
+		private void executionFinished(Task<T> task, long taskStart,
+				boolean isSuccess) {
+			if (metrics != null) {
+				metrics.taskSubmitted();
+				metrics.taskFinished(groupIndex, task.getTaskId(), taskStart
+						- submitNanos, System.nanoTime() - taskStart, isSuccess);
+			}
 		}
 	}
 
 	private class RetryWorker implements Runnable {
-		private final int taskId;
 		private final Task<T> task;
-		private final Thread mainThread;
 
-		public RetryWorker(int taskId, Thread mainThread) {
+		public RetryWorker(Task<T> task) {
 			super();
-			this.taskId = taskId;
-			this.mainThread = mainThread;
-			task = getTask(taskId);
+			this.task = task;
 		}
 
 		@Override
 		public void run() {
+			if (isFinished) {
+				return;
+			}
 			try {
-				retryCheckStrategy.retry(groupIndex, taskId);
-				futureMap.put(ecs.submit(task.getCallable()), taskId);
+				long delay = retryCheckStrategy.retry(groupIndex,
+						task.getTaskId());
+				trace(EventRing.RETRY, task);
+				if (metrics != null) {
+					metrics.retryScheduled(groupIndex, task.getTaskId(), delay);
+				}
+				if (delay > 0) {
+					// Held as the task's future so finishing cancels it
+					Future<?> resubmission = GroupTimer.schedule(
+							new Resubmission(task), delay,
+							TimeUnit.MILLISECONDS);
+					task.setFuture(resubmission);
+					if (isFinished) {
+						resubmission.cancel(false);
+					}
+				} else {
+					submitTask(task);
+				}
 			} catch (IllegalStateException e) {
-				setRetryException(e);
+				if (metrics != null) {
+					metrics.retryRefused(groupIndex, task.getTaskId());
+				}
+				// Retries maxed out - stop the Group
+				retriesExhausted(e);
+			}
+		}
+	}
+
+	// Start a task once its RateLimiter permit is due
+	private class Dispatch implements Runnable {
+		private final TaskFuture<T> future;
+		private final boolean isHedge;
+
+		public Dispatch(TaskFuture<T> future, boolean isHedge) {
+			this.future = future;
+			this.isHedge = isHedge;
+		}
+
+		@Override
+		public void run() {
+			if (isFinished) {
+				future.cancel(false);
+			} else if (!future.isDone()) {
+				dispatch(future, isHedge);
+			}
+		}
+	}
+
+	private class Deadline implements Runnable {
+		private final TaskFuture<T> future;
+
+		public Deadline(TaskFuture<T> future) {
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			if (!future.isDone()) {
+				future.timeOut();
+			}
+		}
+	}
+
+	/*
+	 * Launch a speculative copy of a task that has run too long. Time spent
+	 * queued does not count, so a task still waiting for a thread is checked
+	 * again later rather than duplicated into the same queue.
+	 */
+	private class Hedge implements Runnable {
+		private final TaskFuture<T> future;
+
+		public Hedge(TaskFuture<T> future) {
+			this.future = future;
+		}
 
-				// Tell main ecs taker to exit early - retries maxed out
-				mainThread.interrupt();
+		@Override
+		public void run() {
+			Task<T> task = future.getTask();
+			if (isFinished || future.isDone() || task.isComplete()
+					|| task.getHedgeFuture() != null) {
+				return;
+			}
+
+			long hedgeDelay = hedgeDelayNanos;
+			long runNanos = future.getRunNanos();
+			if (runNanos >= hedgeDelay) {
+				submitCopy(task, true);
+			} else {
+				long wait = runNanos == 0 ? hedgeDelay : hedgeDelay - runNanos;
+				future.setHedge(GroupTimer.schedule(this, wait,
+						TimeUnit.NANOSECONDS));
+			}
+		}
+	}
+
+	private class Resubmission implements Runnable {
+		private final Task<T> task;
+
+		public Resubmission(Task<T> task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			if (!isFinished) {
+				submitTask(task);
 			}
 		}
 	}
@@ -213,17 +1342,75 @@ public class Group<T> {
 	 * construction
 	 */
 	public static class GroupBuilder<T> {
-		private static AtomicInteger groupIndexCounter = new AtomicInteger(0);
-		private final int groupIndex;
 		private final List<Callable<T>> callables = new ArrayList<Callable<T>>();
+		private final List<Object> taskKeys = new ArrayList<Object>();
+		private final List<IntTask> intTasks = new ArrayList<IntTask>();
+		private final List<LongTask> longTasks = new ArrayList<LongTask>();
+		private final List<DoubleTask> doubleTasks = new ArrayList<DoubleTask>();
+		private boolean isOffHeapResults;
 		private int threadPoolSize = 5;
+		private int priority;
+		private int weight = 1;
+		private int quorum;
+		private final List<Class<? extends Throwable>> nonRetryable = new ArrayList<Class<? extends Throwable>>();
+		private int minConcurrencyLimit;
+		private int maxConcurrencyLimit;
+		private ResultListener<T> resultListener;
+		private ExecutorService executorService;
+		private ExecutorService retryExecutorService;
+		private boolean useVirtualThreads;
+		private int maxConcurrency;
+		private Retrier retrier;
+		private int batchSize = 1;
+		private long batchTimeBudget;
+		private Iterator<? extends Callable<T>> taskSource;
+		private int maxInFlight;
+		private boolean retainResults = true;
+		private long taskTimeout;
+		private double hedgePercentile;
+		private WorkgroupMetrics metrics;
+		private ResultCache<T> resultCache;
+		private RateLimiter rateLimiter;
+		private Coordinator coordinator;
 
-		public GroupBuilder() {
-			groupIndex = groupIndexCounter.getAndAdd(1);
+		public GroupBuilder<T> addCallable(Callable<T> callable) {
+			return addCallable(null, callable);
 		}
 
-		public GroupBuilder<T> addCallable(Callable<T> callable) {
+		/*
+		 * Add an idempotent callable whose result may be served from the
+		 * ResultCache under the given key. A null key is never cached.
+		 */
+		public GroupBuilder<T> addCallable(Object taskKey, Callable<T> callable) {
 			callables.add(callable);
+			taskKeys.add(taskKey);
+			return this;
+		}
+
+		/*
+		 * Add a task whose int result goes to the Group's IntResult rather
+		 * than its Result<T>. A Group holds only one kind of task.
+		 */
+		public GroupBuilder<T> addIntTask(IntTask intTask) {
+			intTasks.add(intTask);
+			return this;
+		}
+
+		public GroupBuilder<T> addLongTask(LongTask longTask) {
+			longTasks.add(longTask);
+			return this;
+		}
+
+		public GroupBuilder<T> addDoubleTask(DoubleTask doubleTask) {
+			doubleTasks.add(doubleTask);
+			return this;
+		}
+
+		/*
+		 * Keep primitive results in direct memory outside the heap.
+		 */
+		public GroupBuilder<T> offHeapResults() {
+			this.isOffHeapResults = true;
 			return this;
 		}
 
@@ -232,7 +1419,299 @@ public class Group<T> {
 			return this;
 		}
 
+		/*
+		 * On a FairShareExecutor, Groups of a higher priority are served
+		 * first. The default is 0.
+		 */
+		public GroupBuilder<T> priority(int priority) {
+			this.priority = priority;
+			return this;
+		}
+
+		/*
+		 * On a FairShareExecutor, the Group's share of the threads relative
+		 * to other Groups of the same priority. The default is 1.
+		 */
+		public GroupBuilder<T> weight(int weight) {
+			if (weight < 1) {
+				throw new IllegalArgumentException(
+						"Weight must be at least 1: " + weight);
+			}
+			this.weight = weight;
+			return this;
+		}
+
+		/*
+		 * Adjust the number of tasks in flight between minLimit and maxLimit
+		 * from the latency and failures of finished tasks, starting at
+		 * minLimit. A pool created for the Group gets maxLimit threads and
+		 * threadPoolSize is ignored.
+		 */
+		public GroupBuilder<T> adaptiveConcurrency(int minLimit, int maxLimit) {
+			if (minLimit < 1 || maxLimit < minLimit) {
+				throw new IllegalArgumentException(
+						"Concurrency limits must satisfy 1 <= min <= max: "
+								+ minLimit + ", " + maxLimit);
+			}
+			this.minConcurrencyLimit = minLimit;
+			this.maxConcurrencyLimit = maxLimit;
+			return this;
+		}
+
+		/*
+		 * Run tasks on a shared executor instead of a pool created for this
+		 * Group. The Group never shuts a shared executor down, and
+		 * threadPoolSize is ignored when one is set.
+		 */
+		public GroupBuilder<T> executorService(ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
+
+		/*
+		 * Run each task and retry worker on its own virtual thread instead of
+		 * a fixed pool, with no limit on how many tasks run at once. Falls
+		 * back to a platform thread pool on JVMs without virtual threads.
+		 */
+		public GroupBuilder<T> virtualThreads() {
+			return virtualThreads(0);
+		}
+
+		/*
+		 * Virtual thread mode with at most maxConcurrency tasks running at
+		 * once; zero means unbounded.
+		 */
+		public GroupBuilder<T> virtualThreads(int maxConcurrency) {
+			if (maxConcurrency < 0) {
+				throw new IllegalArgumentException(
+						"Max concurrency must not be negative: "
+								+ maxConcurrency);
+			}
+			this.useVirtualThreads = true;
+			this.maxConcurrency = maxConcurrency;
+			return this;
+		}
+
+		/*
+		 * Run up to batchSize tasks per executor submission, for tasks so
+		 * small that submitting them costs more than running them. Each task
+		 * still has its own result and retry accounting.
+		 */
+		public GroupBuilder<T> batchSize(int batchSize) {
+			if (batchSize < 1) {
+				throw new IllegalArgumentException(
+						"Batch size must be at least 1: " + batchSize);
+			}
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/*
+		 * With batching, stop claiming tasks for a batch once it has run for
+		 * batchTimeBudget milliseconds and pass the rest to a new batch. Zero,
+		 * the default, means batches are limited by batchSize only.
+		 */
+		public GroupBuilder<T> batchTimeBudget(long batchTimeBudget) {
+			if (batchTimeBudget < 0) {
+				throw new IllegalArgumentException(
+						"Batch time budget must not be negative: "
+								+ batchTimeBudget);
+			}
+			this.batchTimeBudget = batchTimeBudget;
+			return this;
+		}
+
+		/*
+		 * Run retry checks on a shared executor instead of a cached pool
+		 * created for this Group.
+		 */
+		public GroupBuilder<T> retryExecutorService(
+				ExecutorService retryExecutorService) {
+			this.retryExecutorService = retryExecutorService;
+			return this;
+		}
+
+		/*
+		 * Retry policy for failed tasks, e.g. an
+		 * ExponentialBackoffRetrierDecorator around ImmediateCounting. By
+		 * default a TimedRetrierDecorator around ImmediateCounting is used.
+		 */
+		public GroupBuilder<T> retrier(Retrier retrier) {
+			this.retrier = retrier;
+			return this;
+		}
+
+		/*
+		 * Cancel any task execution still running after taskTimeout
+		 * milliseconds and count it as a failure for the retry policy. Zero,
+		 * the default, means tasks may run indefinitely.
+		 */
+		public GroupBuilder<T> taskTimeout(long taskTimeout) {
+			if (taskTimeout < 0) {
+				throw new IllegalArgumentException(
+						"Task timeout must not be negative: " + taskTimeout);
+			}
+			this.taskTimeout = taskTimeout;
+			return this;
+		}
+
+		/*
+		 * Launch a second copy of any task still running past the given
+		 * percentile of the Group's task latency, e.g. 0.95, and keep
+		 * whichever copy finishes first. Hedging starts once enough tasks
+		 * have completed to estimate the percentile.
+		 */
+		public GroupBuilder<T> hedge(double hedgePercentile) {
+			if (hedgePercentile <= 0 || hedgePercentile >= 1) {
+				throw new IllegalArgumentException(
+						"Hedge percentile must be between 0 and 1: "
+								+ hedgePercentile);
+			}
+			this.hedgePercentile = hedgePercentile;
+			return this;
+		}
+
+		/*
+		 * Feed the Group lazily from a source of callables, e.g. a cursor or
+		 * Stream.iterator(), keeping at most maxInFlight tasks submitted or
+		 * awaiting retry at once. Replaces addCallable() and batching. The
+		 * source is only read under a lock, so it need not be thread-safe.
+		 */
+		public GroupBuilder<T> taskSource(
+				Iterator<? extends Callable<T>> taskSource, int maxInFlight) {
+			if (maxInFlight < 1) {
+				throw new IllegalArgumentException(
+						"Max in flight must be at least 1: " + maxInFlight);
+			}
+			this.taskSource = taskSource;
+			this.maxInFlight = maxInFlight;
+			return this;
+		}
+
+		/*
+		 * With a task source, whether to keep every result for the final
+		 * Result. Turning this off leaves the Result empty, so memory stays
+		 * flat and results are only delivered to the ResultListener.
+		 */
+		public GroupBuilder<T> retainResults(boolean retainResults) {
+			this.retainResults = retainResults;
+			return this;
+		}
+
+		/*
+		 * Record this Group's task, retry and duration metrics. One instance
+		 * is normally shared across Groups and registered with JMX.
+		 */
+		public GroupBuilder<T> metrics(WorkgroupMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/*
+		 * Memoize the results of callables added with a key. The cache is
+		 * normally shared with other Groups.
+		 */
+		public GroupBuilder<T> resultCache(ResultCache<T> resultCache) {
+			this.resultCache = resultCache;
+			return this;
+		}
+
+		/*
+		 * Limit the rate at which tasks start, including retries. Share the
+		 * limiter with every Group calling the same rate-limited service.
+		 */
+		public GroupBuilder<T> rateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
+		}
+
+		/*
+		 * Run tasks on the Coordinator's worker processes instead of local
+		 * threads. Callables and results must be Serializable; keyed
+		 * callables are not memoized and the virtual thread cap does not
+		 * apply. Cannot be combined with batching or primitive tasks.
+		 */
+		public GroupBuilder<T> coordinator(Coordinator coordinator) {
+			this.coordinator = coordinator;
+			return this;
+		}
+
+		/*
+		 * Complete as soon as any task succeeds, with its result alone, and
+		 * cancel the rest.
+		 */
+		public GroupBuilder<T> firstSuccess() {
+			return quorum(1);
+		}
+
+		/*
+		 * Complete as soon as quorum tasks have succeeded, with their results
+		 * in the order they succeeded, cancelling the tasks still running and
+		 * dropping pending retries. A task out of retries only fails the
+		 * Group once the quorum can no longer be reached.
+		 */
+		public GroupBuilder<T> quorum(int quorum) {
+			if (quorum < 1) {
+				throw new IllegalArgumentException(
+						"Quorum must be at least 1: " + quorum);
+			}
+			this.quorum = quorum;
+			return this;
+		}
+
+		/*
+		 * Fail the Group at once, without retrying, when a task throws the
+		 * given type of exception or a subclass of it. May be called for
+		 * several types.
+		 */
+		public GroupBuilder<T> failFastOn(
+				Class<? extends Throwable> nonRetryableType) {
+			nonRetryable.add(nonRetryableType);
+			return this;
+		}
+
+		/*
+		 * Stream each task result to the listener as it completes, in addition
+		 * to the Result returned once the whole Group is done.
+		 */
+		public GroupBuilder<T> resultListener(ResultListener<T> resultListener) {
+			this.resultListener = resultListener;
+			return this;
+		}
+
 		public Group<T> build() {
+			int taskKinds = 0;
+			for (List<?> added : Arrays.asList(callables, intTasks,
+					longTasks, doubleTasks)) {
+				if (!added.isEmpty()) {
+					taskKinds++;
+				}
+			}
+			if (taskKinds > 1) {
+				throw new IllegalStateException(
+						"Callables and int, long or double tasks cannot be mixed in one Group");
+			}
+			if (taskSource != null && (taskKinds > 0 || batchSize > 1)) {
+				throw new IllegalStateException(
+						"A task source cannot be combined with added tasks or batching");
+			}
+			if (quorum > callables.size() || quorum > 0 && taskSource != null) {
+				throw new IllegalStateException("A quorum of " + quorum
+						+ " needs as many added callables");
+			}
+			if (coordinator != null && (batchSize > 1 || !intTasks.isEmpty()
+					|| !longTasks.isEmpty() || !doubleTasks.isEmpty())) {
+				throw new IllegalStateException(
+						"Only unbatched callables can run on a Coordinator");
+			}
+			if (batchSize > 1 && maxConcurrencyLimit > 0) {
+				throw new IllegalStateException(
+						"Batched tasks cannot have adaptive concurrency");
+			}
+			if (batchSize > 1 && (taskTimeout > 0 || hedgePercentile > 0)) {
+				throw new IllegalStateException(
+						"Batched tasks cannot have timeouts or hedging");
+			}
 			return new Group<T>(this);
 		}
 	}
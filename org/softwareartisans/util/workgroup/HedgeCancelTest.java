@@ -0,0 +1,127 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+
+/*
+ * Driver for hedged Groups that finish with a straggler still running, by
+ * failing fast and by reaching a quorum. The straggler's own copy and its
+ * hedge copy must both be interrupted.
+ */
+class HedgeCancelTest {
+	private static final int FAST_TASKS = 20;
+
+	private static final AtomicInteger started = new AtomicInteger();
+	private static final AtomicInteger interrupted = new AtomicInteger();
+
+	public static void main(String[] args) throws InterruptedException {
+		GroupBuilder<Integer> failFast = builder().failFastOn(
+				IllegalArgumentException.class).addCallable(
+				new Finish(new IllegalArgumentException("Fail fast")));
+		try {
+			failFast.build().processGroup();
+		} catch (IllegalStateException e) {
+			System.out.println(e.getMessage());
+		}
+		check("Fail fast");
+
+		GroupBuilder<Integer> quorum = builder().quorum(FAST_TASKS + 1)
+				.addCallable(new Finish(null));
+		System.out.println(quorum.build().processGroup());
+		check("Quorum");
+	}
+
+	// A straggler then fast tasks, enough for a hedge delay to be estimated
+	private static GroupBuilder<Integer> builder() {
+		started.set(0);
+		interrupted.set(0);
+		GroupBuilder<Integer> builder = new GroupBuilder<Integer>().hedge(0.5)
+				.threadPoolSize(2 * FAST_TASKS).addCallable(new Straggler());
+		for (int i = 0; i < FAST_TASKS; i++) {
+			builder.addCallable(new Sleep(10));
+		}
+		return builder;
+	}
+
+	private static void check(String name) throws InterruptedException {
+		Thread.sleep(200);
+		System.out.println(name + ": straggler copies started: "
+				+ started.get() + ", interrupted: " + interrupted.get());
+		if (started.get() < 2 || interrupted.get() != started.get()) {
+			throw new IllegalStateException(name
+					+ ": straggler copies left running");
+		}
+	}
+
+	private static class Straggler implements Callable<Integer> {
+		@Override
+		public Integer call() throws InterruptedException {
+			started.incrementAndGet();
+			try {
+				Thread.sleep(60000);
+			} catch (InterruptedException e) {
+				interrupted.incrementAndGet();
+				throw e;
+			}
+			return 0;
+		}
+	}
+
+	private static class Sleep implements Callable<Integer> {
+		private final int millis;
+
+		Sleep(int millis) {
+			this.millis = millis;
+		}
+
+		@Override
+		public Integer call() throws InterruptedException {
+			Thread.sleep(millis);
+			return millis;
+		}
+	}
+
+	// Finishes the Group, once the straggler is hedged, by failing or not
+	private static class Finish implements Callable<Integer> {
+		private final RuntimeException failure;
+
+		Finish(RuntimeException failure) {
+			this.failure = failure;
+		}
+
+		@Override
+		public Integer call() throws InterruptedException {
+			Thread.sleep(300);
+			if (failure != null) {
+				throw failure;
+			}
+			return 300;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.Space.SpaceBuilder;
+import org.softwareartisans.util.workgroup.journal.JavaSerializer;
+import org.softwareartisans.util.workgroup.journal.ResultJournal;
+
+/*
+ * Driver for resuming a Space from its ResultJournal. A first run fails
+ * part way through its second Group; the resumed run must only run the
+ * tasks that had not succeeded. The journal is then given a zeroed
+ * trailing record, and has its last record corrupted, and must be
+ * truncated to its valid records and still resume without running a task.
+ */
+class JournalResumeTest {
+	private static final int GROUPS = 3;
+	private static final int TASKS = 5;
+	private static final int FAILING_GROUP = 1;
+	private static final int FAILING_TASK = 3;
+
+	// Successful runs of each task, across every run of the Space
+	private static final AtomicIntegerArray successes = new AtomicIntegerArray(
+			GROUPS * TASKS);
+	private static volatile boolean isBroken = true;
+
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempFile("workgroup", ".journal");
+		Files.delete(path);
+		try {
+			try {
+				solve(path);
+				throw new IllegalStateException("First run did not fail");
+			} catch (IllegalStateException e) {
+				System.out.println("First run: " + e.getMessage() + ", "
+						+ totalSuccesses() + " tasks succeeded");
+			}
+
+			isBroken = false;
+			check("Resumed run", solve(path));
+			long validSize = Files.size(path);
+
+			// A zeroed record header, as left by a crash after remapping
+			FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.WRITE);
+			try {
+				channel.write(ByteBuffer.allocate(64), validSize);
+			} finally {
+				channel.close();
+			}
+			check("Zeroed tail", solve(path));
+			if (Files.size(path) != validSize) {
+				throw new IllegalStateException("Zeroed tail not truncated: "
+						+ Files.size(path) + " bytes, expected " + validSize);
+			}
+
+			// Flip a byte of the last record, the last Group's completion
+			channel = FileChannel.open(path, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			try {
+				ByteBuffer lastByte = ByteBuffer.allocate(1);
+				channel.read(lastByte, validSize - 1);
+				lastByte.put(0, (byte) (lastByte.get(0) ^ 0xFF)).rewind();
+				channel.write(lastByte, validSize - 1);
+			} finally {
+				channel.close();
+			}
+			check("Corrupt last record", solve(path));
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	private static List<Result<Integer>> solve(Path path) throws IOException {
+		ResultJournal<Integer> journal = new ResultJournal<Integer>(path,
+				new JavaSerializer<Integer>());
+		try {
+			SpaceBuilder<Integer> spaceBuilder = new SpaceBuilder<Integer>()
+					.journal(journal);
+			for (int group = 0; group < GROUPS; group++) {
+				GroupBuilder<Integer> groupBuilder = new GroupBuilder<Integer>()
+						.threadPoolSize(1).failFastOn(
+								UnsupportedOperationException.class);
+				for (int task = 0; task < TASKS; task++) {
+					groupBuilder.addCallable(new Square(group, task));
+				}
+				spaceBuilder.addGroup(groupBuilder.build());
+			}
+			return spaceBuilder.build().solve();
+		} finally {
+			journal.close();
+		}
+	}
+
+	// Every task must have succeeded exactly once over all the runs
+	private static void check(String name, List<Result<Integer>> results) {
+		for (int group = 0; group < GROUPS; group++) {
+			List<Integer> groupResults = results.get(group)
+					.getWorkGroupResult();
+			for (int task = 0; task < TASKS; task++) {
+				int number = group * TASKS + task;
+				if (groupResults.get(task) != number * number) {
+					throw new IllegalStateException(name + ": wrong result "
+							+ groupResults.get(task) + " for task " + task
+							+ " of Group " + group);
+				}
+				if (successes.get(number) != 1) {
+					throw new IllegalStateException(name + ": task " + task
+							+ " of Group " + group + " succeeded "
+							+ successes.get(number) + " times");
+				}
+			}
+		}
+		System.out.println(name + ": " + totalSuccesses()
+				+ " tasks succeeded in all");
+	}
+
+	private static int totalSuccesses() {
+		int total = 0;
+		for (int i = 0; i < successes.length(); i++) {
+			total += successes.get(i);
+		}
+		return total;
+	}
+
+	private static class Square implements Callable<Integer> {
+		private final int group;
+		private final int task;
+
+		Square(int group, int task) {
+			this.group = group;
+			this.task = task;
+		}
+
+		@Override
+		public Integer call() {
+			if (isBroken && group == FAILING_GROUP && task == FAILING_TASK) {
+				throw new UnsupportedOperationException("Broken for now");
+			}
+			int number = group * TASKS + task;
+			successes.incrementAndGet(number);
+			return number * number;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/*
+ * Results of a Group of LongTasks, one long slot per task id, preallocated
+ * when the Group is built. The slots can live off-heap in a direct buffer so
+ * that very large Groups add nothing to the heap the collector scans.
+ * 
+ * Each task writes only its own slot, and the Group's completion publishes
+ * every write, so the values are safe to read once processing has finished.
+ */
+public class LongResult {
+	private final LongBuffer results;
+
+	public LongResult(int size) {
+		this(size, false);
+	}
+
+	public LongResult(int size, boolean isOffHeap) {
+		if (size < 0 || size > Integer.MAX_VALUE / 8) {
+			throw new IllegalArgumentException("Invalid result size: " + size);
+		}
+		if (isOffHeap) {
+			results = ByteBuffer.allocateDirect(size * 8)
+					.order(ByteOrder.nativeOrder()).asLongBuffer();
+		} else {
+			results = LongBuffer.wrap(new long[size]);
+		}
+	}
+
+	public int size() {
+		return results.capacity();
+	}
+
+	public long get(int taskId) {
+		return results.get(taskId);
+	}
+
+	// Absolute puts leave the buffer position alone, so tasks never contend
+	void set(int taskId, long result) {
+		results.put(taskId, result);
+	}
+
+	public long[] toArray() {
+		long[] copy = new long[results.capacity()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = results.get(i);
+		}
+		return copy;
+	}
+
+	public boolean isOffHeap() {
+		return results.isDirect();
+	}
+
+	@Override
+	public String toString() {
+		return "LongResult [results=" + Arrays.toString(toArray()) + "]";
+	}
+}
@@ -0,0 +1,118 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.Space.SpaceBuilder;
+
+/*
+ * Driver for a Space of thousands of Groups that complete as soon as they
+ * are started, empty or with a single trivial task, solved serially and in
+ * parallel. Every Group must be solved without the Space's scheduling
+ * nesting a call per Group.
+ */
+class ManyGroupsTest {
+	private static final int GROUP_COUNT = 10000;
+
+	public static void main(String[] args) {
+		for (int parallelism : new int[] { 1, 4 }) {
+			SpaceBuilder<Integer> spaceBuilder = new SpaceBuilder<Integer>()
+					.parallelism(parallelism);
+			for (int i = 0; i < GROUP_COUNT; i++) {
+				GroupBuilder<Integer> groupBuilder = new GroupBuilder<Integer>()
+						.executorService(new DirectExecutor());
+				if (i % 2 == 1) {
+					groupBuilder.addCallable(new Trivial(i));
+				}
+				spaceBuilder.addGroup(groupBuilder.build());
+			}
+
+			List<Result<Integer>> results = spaceBuilder.build().solve();
+			int tasks = 0;
+			for (Result<Integer> groupResult : results) {
+				tasks += groupResult.getWorkGroupResult().size();
+			}
+			System.out.println("Parallelism " + parallelism + ": "
+					+ results.size() + " Groups, " + tasks + " tasks");
+		}
+	}
+
+	private static class Trivial implements Callable<Integer> {
+		private final int number;
+
+		Trivial(int number) {
+			this.number = number;
+		}
+
+		@Override
+		public Integer call() {
+			return number;
+		}
+	}
+
+	// Runs each task on the submitting thread, so every Group completes
+	// before processGroupAsync() returns
+	private static class DirectExecutor extends AbstractExecutorService {
+		private volatile boolean isShutdown = false;
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+			isShutdown = true;
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			isShutdown = true;
+			return new ArrayList<Runnable>();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return isShutdown;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return isShutdown;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout,
+				TimeUnit unit) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Token bucket limiting the rate at which tasks start, for Groups that call
+ * a quota-bound service. Up to burst tasks can start at once, after which
+ * starts are spaced at permitsPerSecond. Retries and hedged copies take a
+ * permit like any other start. One limiter can be shared by every Group in
+ * a Space, or by Spaces that call the same service.
+ * 
+ * The bucket is kept as the time its next permit frees up, updated by
+ * compare and set, so taking a permit never locks. A start that must wait
+ * is told for how long and the Group delays its dispatch on the timer;
+ * worker threads are never blocked waiting for a permit.
+ */
+public class RateLimiter {
+	private final long intervalNanos;
+	private final long burstNanos;
+	private final AtomicLong nextFreeNanos;
+
+	public RateLimiter(double permitsPerSecond) {
+		this(permitsPerSecond, 1);
+	}
+
+	public RateLimiter(double permitsPerSecond, int burst) {
+		if (!(permitsPerSecond > 0)) {
+			throw new IllegalArgumentException(
+					"Permits per second must be positive: " + permitsPerSecond);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("Burst must be at least 1: "
+					+ burst);
+		}
+		intervalNanos = Math.max(1,
+				(long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+		burstNanos = (burst - 1) * intervalNanos;
+		nextFreeNanos = new AtomicLong(System.nanoTime());
+	}
+
+	/*
+	 * Take the next permit.
+	 * 
+	 * @returns nanoseconds to wait before the permit may be used, zero if
+	 * it may be used now
+	 */
+	long reserve() {
+		long now = System.nanoTime();
+		while (true) {
+			long nextFree = nextFreeNanos.get();
+			// A bucket idle long enough is full, so earlier time is not banked
+			long from = nextFree - now > 0 ? nextFree : now;
+			if (nextFreeNanos.compareAndSet(nextFree, from + intervalNanos)) {
+				return Math.max(0, from - burstNanos - now);
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/*
+ * Folds task results into a Collector as they complete, so a Group or Space
+ * that only needs an aggregate never holds its results.
+ * 
+ * Results are accumulated on the thread that completed the task, into one
+ * of a fixed set of containers picked by thread, so worker threads rarely
+ * contend and memory is bounded by the containers rather than the tasks.
+ * The containers are combined once the Group or Space completes. A
+ * CONCURRENT collector is accumulated into a single container instead.
+ * 
+ * Results arrive in completion order, so the Collector should not depend on
+ * the order of the tasks.
+ */
+final class Reduction<T, A, R> {
+	private final Collector<? super T, A, R> collector;
+	private final Supplier<A> supplier;
+	private final BiConsumer<A, ? super T> accumulator;
+	private final Object[] locks;
+	private final Object[] containers;
+	private final boolean isConcurrent;
+
+	Reduction(Collector<? super T, A, R> collector) {
+		this.collector = collector;
+		this.supplier = collector.supplier();
+		this.accumulator = collector.accumulator();
+		Set<Collector.Characteristics> characteristics = collector
+				.characteristics();
+		isConcurrent = characteristics
+				.contains(Collector.Characteristics.CONCURRENT);
+		int stripes = isConcurrent ? 1 : Runtime.getRuntime()
+				.availableProcessors();
+		locks = new Object[stripes];
+		containers = new Object[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new Object();
+		}
+		if (isConcurrent) {
+			containers[0] = supplier.get();
+		}
+	}
+
+	void accumulate(T result) {
+		if (isConcurrent) {
+			accumulator.accept(getContainer(0), result);
+			return;
+		}
+		int stripe = (int) (Thread.currentThread().getId() % locks.length);
+		synchronized (locks[stripe]) {
+			if (containers[stripe] == null) {
+				containers[stripe] = supplier.get();
+			}
+			accumulator.accept(getContainer(stripe), result);
+		}
+	}
+
+	void accumulateAll(List<? extends T> results) {
+		for (T result : results) {
+			accumulate(result);
+		}
+	}
+
+	// Combine the containers used; called once every result is accumulated
+	@SuppressWarnings("unchecked")
+	R finish() {
+		BinaryOperator<A> combiner = collector.combiner();
+		A combined = null;
+		for (int i = 0; i < locks.length; i++) {
+			synchronized (locks[i]) {
+				if (containers[i] != null) {
+					combined = combined == null ? getContainer(i) : combiner
+							.apply(combined, getContainer(i));
+				}
+			}
+		}
+		if (combined == null) {
+			combined = supplier.get();
+		}
+		if (collector.characteristics().contains(
+				Collector.Characteristics.IDENTITY_FINISH)) {
+			return (R) combined;
+		}
+		return collector.finisher().apply(combined);
+	}
+
+	/*
+	 * The reduced result of the source future. Cancelling it cancels the
+	 * source.
+	 */
+	CompletableFuture<R> reduce(final CompletableFuture<?> source) {
+		final CompletableFuture<R> reduced = new CompletableFuture<R>();
+		source.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object ignored, Throwable failure) {
+				if (failure != null) {
+					reduced.completeExceptionally(failure);
+					return;
+				}
+				try {
+					reduced.complete(finish());
+				} catch (RuntimeException e) {
+					reduced.completeExceptionally(e);
+				}
+			}
+		});
+		reduced.whenComplete(new BiConsumer<R, Throwable>() {
+			@Override
+			public void accept(R result, Throwable failure) {
+				if (reduced.isCancelled()) {
+					source.cancel(true);
+				}
+			}
+		});
+		return reduced;
+	}
+
+	@SuppressWarnings("unchecked")
+	private A getContainer(int stripe) {
+		return (A) containers[stripe];
+	}
+}
@@ -31,7 +31,16 @@ import java.util.List;
  * Wrapper around collection class to improve client code readability.
  */
 public class Result<T> {
-	private final List<T> results = new ArrayList<T>();
+	private final List<T> results;
+
+	public Result() {
+		results = new ArrayList<T>();
+	}
+
+	// Presize when the number of results is known up front
+	public Result(int expectedSize) {
+		results = new ArrayList<T>(expectedSize);
+	}
 
 	public List<T> getWorkGroupResult() {
 		return results;
@@ -0,0 +1,224 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Memoizes the results of idempotent tasks by a caller supplied key, so a
+ * task repeated within or across Groups runs once. One cache can be shared
+ * by every Group in a Space, or by successive Spaces.
+ * 
+ * The cache holds at most maxSize results, evicting the least recently used,
+ * and optionally expires results a fixed time after they were computed.
+ * Concurrent tasks with the same key are coalesced: the first runs and the
+ * others wait for its result, or fail with it.
+ * 
+ * Eviction is plain LRU on an access ordered LinkedHashMap rather than
+ * W-TinyLFU, keeping the cache free of dependencies. Since access order
+ * makes every hit a write, lookups take one lock on the map, and hits from
+ * all the Groups sharing a cache are serialized on it; that suits tasks long
+ * enough that a lookup is small beside them.
+ * 
+ * Only successful results are cached. Keys must implement equals and
+ * hashCode.
+ */
+public class ResultCache<T> {
+	private final int maxSize;
+	private final long timeToLiveNanos;
+	private final Map<Object, CachedResult<T>> results;
+	private final ConcurrentHashMap<Object, CompletableFuture<T>> inFlight = new ConcurrentHashMap<Object, CompletableFuture<T>>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	public ResultCache(int maxSize) {
+		this(maxSize, 0);
+	}
+
+	// A timeToLive of zero keeps results until they are evicted
+	public ResultCache(final int maxSize, long timeToLive) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException(
+					"Max size must be at least 1: " + maxSize);
+		}
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException(
+					"Time to live must not be negative: " + timeToLive);
+		}
+		this.maxSize = maxSize;
+		this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+
+		// Access order makes the eldest entry the least recently used
+		results = new LinkedHashMap<Object, CachedResult<T>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Object, CachedResult<T>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/*
+	 * The cached result for the key, otherwise the result of the in-flight
+	 * task with the same key, otherwise the result of running the callable.
+	 * 
+	 * @throws Exception thrown by the callable that ran for this key
+	 */
+	public T get(Object key, Callable<T> callable) throws Exception {
+		CachedResult<T> cached = lookup(key);
+		if (cached != null) {
+			hits.increment();
+			return cached.result;
+		}
+
+		CompletableFuture<T> computation = new CompletableFuture<T>();
+		CompletableFuture<T> running = inFlight.putIfAbsent(key, computation);
+		if (running != null) {
+			coalesced.increment();
+			return await(running);
+		}
+
+		// The last owner may have stored its result since the lookup above
+		cached = lookup(key);
+		if (cached != null) {
+			inFlight.remove(key, computation);
+			computation.complete(cached.result);
+			hits.increment();
+			return cached.result;
+		}
+
+		misses.increment();
+		try {
+			T result = callable.call();
+			store(key, result);
+			inFlight.remove(key, computation);
+			computation.complete(result);
+			return result;
+		} catch (Throwable failure) {
+			inFlight.remove(key, computation);
+			computation.completeExceptionally(failure);
+			throw failure;
+		}
+	}
+
+	// A callable that answers through this cache
+	public Callable<T> wrap(final Object key, final Callable<T> callable) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return get(key, callable);
+			}
+		};
+	}
+
+	public void invalidate(Object key) {
+		synchronized (results) {
+			results.remove(key);
+		}
+	}
+
+	public void clear() {
+		synchronized (results) {
+			results.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	// Tasks that waited on an identical task instead of running
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	private CachedResult<T> lookup(Object key) {
+		synchronized (results) {
+			CachedResult<T> cached = results.get(key);
+			if (cached != null && timeToLiveNanos > 0
+					&& System.nanoTime() - cached.storedNanos > timeToLiveNanos) {
+				results.remove(key);
+				return null;
+			}
+			return cached;
+		}
+	}
+
+	private void store(Object key, T result) {
+		CachedResult<T> cached = new CachedResult<T>(result, System.nanoTime());
+		synchronized (results) {
+			results.put(key, cached);
+		}
+	}
+
+	private static <T> T await(CompletableFuture<T> running) throws Exception {
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	private static class CachedResult<T> {
+		private final T result;
+		private final long storedNanos;
+
+		CachedResult(T result, long storedNanos) {
+			this.result = result;
+			this.storedNanos = storedNanos;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.retry.ImmediateCounting;
+
+/*
+ * Driver for two Groups built from one builder and sharing a Retrier. Each
+ * must get its own retry counters, so the first finishing, and releasing
+ * its counters, must not lift the task and group limits of the second.
+ */
+class SharedRetrierTest {
+	public static void main(String[] args) {
+		// Task limit: one always failing task, refused after 2 retries
+		AtomicInteger attempts = new AtomicInteger();
+		GroupBuilder<Integer> taskLimited = new GroupBuilder<Integer>()
+				.retrier(new ImmediateCounting(2, 10, 1000)).addCallable(
+						new Failing(attempts));
+		check("Task limit", taskLimited, attempts, 3);
+
+		// Group limit: two always failing tasks, refused after 4 retries
+		attempts = new AtomicInteger();
+		GroupBuilder<Integer> groupLimited = new GroupBuilder<Integer>()
+				.retrier(new ImmediateCounting(100, 4, 1000))
+				.threadPoolSize(1).addCallable(new Failing(attempts))
+				.addCallable(new Failing(attempts));
+		check("Group limit", groupLimited, attempts, 2 + 4);
+	}
+
+	// Build and run the builder's Group twice, expecting the same attempts
+	private static void check(String name, GroupBuilder<Integer> builder,
+			AtomicInteger attempts, int maxAttempts) {
+		for (int run = 1; run <= 2; run++) {
+			attempts.set(0);
+			try {
+				builder.build().processGroup();
+				throw new IllegalStateException(name + ": Group " + run
+						+ " was not refused");
+			} catch (IllegalStateException e) {
+				System.out.println(name + ", Group " + run + ": "
+						+ e.getMessage() + " after " + attempts.get()
+						+ " attempts");
+			}
+			if (attempts.get() > maxAttempts) {
+				throw new IllegalStateException(name + ": Group " + run
+						+ " made " + attempts.get() + " attempts, limit "
+						+ maxAttempts);
+			}
+		}
+	}
+
+	private static class Failing implements Callable<Integer> {
+		private final AtomicInteger attempts;
+
+		Failing(AtomicInteger attempts) {
+			this.attempts = attempts;
+		}
+
+		@Override
+		public Integer call() throws Exception {
+			attempts.incrementAndGet();
+			throw new Exception("Always fails");
+		}
+	}
+}
@@ -24,46 +24,596 @@ package org.softwareartisans.util.workgroup;
  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.stream.Collector;
+
+import org.softwareartisans.util.workgroup.distributed.Coordinator;
+import org.softwareartisans.util.workgroup.journal.ResultJournal;
+import org.softwareartisans.util.workgroup.metrics.WorkgroupMetrics;
+import org.softwareartisans.util.workgroup.trace.EventRing;
 
 /*
  * Space contains all Groups and dispatches the work results list. 
  * 
+ * Groups are processed one after another unless a parallelism greater than
+ * one is configured, in which case up to that many Groups are processed at
+ * once. Either way the results are returned in Group order and the first
+ * Group to exhaust its retries stops the Space, cancelling the Groups still
+ * in flight.
+ * 
+ * A Group can depend on Groups added before it, making the Space a DAG. Each
+ * Group becomes ready when its upstream Groups complete, and ready Groups
+ * start in the order they were added as slots free up, so independent
+ * branches run in parallel and the Space takes as long as its critical
+ * path. A GroupFactory builds its Group from the upstream Results at that
+ * point.
+ * 
+ * Executors given to the SpaceBuilder are shared by every Group that was not
+ * built with its own, so warm threads are reused from Group to Group. Their
+ * lifecycle belongs to the caller; the Space never shuts them down. Metrics
+ * and a ResultCache given to the SpaceBuilder are shared the same way, the
+ * cache letting a task repeated across Groups run once.
+ * 
+ * With a ResultJournal, completed tasks and Groups are journaled as the
+ * Space runs. A Space rebuilt with the same Groups in the same order and
+ * given the same journal resumes where a failed run stopped: Groups already
+ * complete are taken from the journal without running, and partly complete
+ * Groups run only their remaining tasks.
+ * 
+ * Given a Coordinator, the Space runs its Groups' tasks on worker processes
+ * across hosts; the Groups themselves are still scheduled here.
+ * 
+ * A Space that fails can dump the recent task events of the process to a
+ * file, to be read with TraceTimeline.
+ * 
+ * Solved with a Collector, the Space returns one aggregate over every Group's
+ * results rather than a list of Results.
  */
 
 public class Space<T> {
+	// By position; a Group built by a factory has a null entry in groups
 	private final List<Group<T>> groups;
+	private final List<GroupFactory<T>> groupFactories;
+	private final List<int[]> upstreamGroups;
+	private final int parallelism;
+	private final ExecutorService executorService;
+	private final ExecutorService retryExecutorService;
+	private final WorkgroupMetrics metrics;
+	private final ResultCache<T> resultCache;
+	private final RateLimiter rateLimiter;
+	private final Coordinator coordinator;
+	private final ResultJournal<T> journal;
+	private final Path traceDirectory;
 
 	private Space(SpaceBuilder<T> builder) {
 		this.groups = builder.groups;
+		this.groupFactories = builder.groupFactories;
+		this.upstreamGroups = builder.upstreamGroups;
+		this.parallelism = builder.parallelism;
+		this.executorService = builder.executorService;
+		this.retryExecutorService = builder.retryExecutorService;
+		this.metrics = builder.metrics;
+		this.resultCache = builder.resultCache;
+		this.rateLimiter = builder.rateLimiter;
+		this.coordinator = builder.coordinator;
+		this.journal = builder.journal;
+		this.traceDirectory = builder.traceDirectory;
+
+		for (int i = 0; i < groups.size(); i++) {
+			if (groups.get(i) != null) {
+				shareWithGroup(groups.get(i), i);
+			}
+		}
+	}
+
+	// Hand the Space's shared resources to a Group without its own
+	private void shareWithGroup(Group<T> group, int position) {
+		if (executorService != null || retryExecutorService != null) {
+			group.shareExecutors(executorService, retryExecutorService);
+		}
+		if (metrics != null) {
+			group.shareMetrics(metrics);
+		}
+		if (resultCache != null) {
+			group.shareResultCache(resultCache);
+		}
+		if (rateLimiter != null) {
+			group.shareRateLimiter(rateLimiter);
+		}
+		if (coordinator != null) {
+			group.shareCoordinator(coordinator);
+		}
+		if (journal != null) {
+			group.shareJournal(journal, position);
+		}
 	}
 
+	/*
+	 * @throws IllegalStateException wrapping the failure of the first Group
+	 * to exhaust its retries.
+	 */
 	public List<Result<T>> solve() {
-		List<Result<T>> results = new ArrayList<Result<T>>();
+		return await(solveAsync());
+	}
+
+	/*
+	 * Solve, folding the results of every Group into the collector instead
+	 * of returning them. Groups that no other Group depends on are reduced
+	 * as their tasks complete and never hold their results; the Results of
+	 * the others are kept for their downstream Groups and folded in when
+	 * they complete.
+	 * 
+	 * @throws IllegalStateException as solve()
+	 */
+	public <R> R solve(Collector<? super T, ?, R> collector) {
+		return await(solveAsync(collector));
+	}
+
+	private <V> V await(CompletableFuture<V> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException interrupt) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Solver interrupted - no further processing", interrupt);
+		} catch (ExecutionException e) {
+			throw Group.asRuntimeException(e.getCause());
+		}
+	}
+
+	/*
+	 * Solve without blocking the caller. Each Group is started as a slot
+	 * frees up and its dependencies are met, from the thread that completed
+	 * the previous Group, so no thread is held while the Space runs.
+	 * Cancelling the future cancels the Groups in flight and starts no more.
+	 */
+	public CompletableFuture<List<Result<T>>> solveAsync() {
+		return new SpaceRun(null).start();
+	}
+
+	// As solveAsync(), reducing the results with the collector
+	public <A, R> CompletableFuture<R> solveAsync(
+			Collector<? super T, A, R> collector) {
+		Reduction<T, A, R> reduction = new Reduction<T, A, R>(collector);
+		return reduction.reduce(new SpaceRun(reduction).start());
+	}
+
+	private class SpaceRun {
+		private final Reduction<? super T, ?, ?> reduction;
+		private final CompletableFuture<List<Result<T>>> spaceFuture = new CompletableFuture<List<Result<T>>>();
+		private final AtomicReferenceArray<CompletableFuture<Result<T>>> groupFutures = new AtomicReferenceArray<CompletableFuture<Result<T>>>(
+				groups.size());
+		// The Group run at each position, including those built by factories
+		private final AtomicReferenceArray<Group<T>> runGroups = new AtomicReferenceArray<Group<T>>(
+				groups.size());
+		private final AtomicInteger remainingGroups = new AtomicInteger(
+				groups.size());
+		private final long startNanos = System.nanoTime();
+
+		// guarded by this
+		private final PriorityQueue<Integer> readyGroups = new PriorityQueue<Integer>();
+		private final int[] pendingUpstream = new int[groups.size()];
+		private final List<List<Integer>> downstreamGroups = new ArrayList<List<Integer>>(
+				groups.size());
+		private int freeSlots = parallelism;
+		private boolean isStarting = false;
+
+		SpaceRun(Reduction<? super T, ?, ?> reduction) {
+			this.reduction = reduction;
+		}
+
+		CompletableFuture<List<Result<T>>> start() {
+			spaceFuture
+					.whenComplete(new BiConsumer<List<Result<T>>, Throwable>() {
+						@Override
+						public void accept(List<Result<T>> results,
+								Throwable failure) {
+							if (failure != null) {
+								cancelGroups();
+							}
+							if (metrics != null) {
+								metrics.spaceFinished(System.nanoTime()
+										- startNanos, failure == null);
+							}
+						}
+					});
+
+			if (groups.isEmpty()) {
+				spaceFuture.complete(new ArrayList<Result<T>>());
+			}
+			synchronized (this) {
+				for (int i = 0; i < groups.size(); i++) {
+					downstreamGroups.add(new ArrayList<Integer>());
+				}
+				for (int i = 0; i < groups.size(); i++) {
+					int[] upstream = upstreamGroups.get(i);
+					pendingUpstream[i] = upstream.length;
+					for (int u : upstream) {
+						downstreamGroups.get(u).add(i);
+					}
+					if (upstream.length == 0) {
+						readyGroups.add(i);
+					}
+				}
+			}
+			startReadyGroups();
+			return spaceFuture;
+		}
+
+		/*
+		 * Start ready Groups, earliest added first, while slots are free.
+		 * Groups are chosen under the lock but started outside it, since a
+		 * Group can complete, and call back in here, on this thread.
+		 * 
+		 * Only one thread runs the loop at a time. A call made while it runs,
+		 * e.g. by a Group that completed as it was started, returns at once:
+		 * the state it changed is seen when the loop next checks under the
+		 * lock, so Groups that complete synchronously do not nest calls.
+		 */
+		private void startReadyGroups() {
+			synchronized (this) {
+				if (isStarting) {
+					return;
+				}
+				isStarting = true;
+			}
+			try {
+				while (true) {
+					int index;
+					boolean isResumed;
+					synchronized (this) {
+						if (freeSlots == 0 || readyGroups.isEmpty()
+								|| spaceFuture.isDone()) {
+							isStarting = false;
+							return;
+						}
+						index = readyGroups.poll();
+						isResumed = isJournaledComplete(index);
+						if (!isResumed) {
+							freeSlots--;
+						}
+					}
+
+					if (!isResumed) {
+						startGroup(index);
+					} else {
+						// Taken from the journal without running or using a
+						// slot
+						Result<T> result = journal.getGroupResult(index);
+						if (reduction != null) {
+							reduction
+									.accumulateAll(result.getWorkGroupResult());
+						}
+						groupFutures.set(index,
+								CompletableFuture.completedFuture(result));
+						groupDone(index, false);
+					}
+				}
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					isStarting = false;
+				}
+				stop(e);
+			} catch (Error e) {
+				synchronized (this) {
+					isStarting = false;
+				}
+				throw e;
+			}
+		}
+
+		private void startGroup(final int index) {
+			CompletableFuture<Result<T>> groupFuture;
+			final boolean isReduced;
+			try {
+				Group<T> group = createGroup(index);
+				runGroups.set(index, group);
+				isReduced = reduction != null && isLeafGroup(index);
+				if (isReduced) {
+					group.reduceInto(reduction);
+				}
+				groupFuture = group.processGroupAsync();
+			} catch (RuntimeException e) {
+				stop(e);
+				return;
+			}
+			groupFutures.set(index, groupFuture);
+			// Cancelled while this Group was being started
+			if (spaceFuture.isDone()) {
+				groupFuture.cancel(true);
+				return;
+			}
+
+			groupFuture.whenComplete(new BiConsumer<Result<T>, Throwable>() {
+				@Override
+				public void accept(Result<T> result, Throwable failure) {
+					if (failure == null) {
+						failure = journalGroup(index);
+					}
+					if (failure == null && reduction != null && !isReduced) {
+						reduction.accumulateAll(result.getWorkGroupResult());
+					}
+					if (failure != null) {
+						stop(failure);
+					} else if (groupDone(index, true)) {
+						startReadyGroups();
+					}
+				}
+			});
+		}
+
+		// A factory's Group is built from the Results of its upstream Groups
+		private Group<T> createGroup(int index) {
+			if (groups.get(index) != null) {
+				return groups.get(index);
+			}
+			int[] upstream = upstreamGroups.get(index);
+			List<Result<T>> upstreamResults = new ArrayList<Result<T>>(
+					upstream.length);
+			for (int u : upstream) {
+				upstreamResults.add(groupFutures.get(u).join());
+			}
+			Group<T> group = groupFactories.get(index).createGroup(
+					upstreamResults);
+			if (group == null) {
+				throw new IllegalStateException("Group factory at position: "
+						+ index + " returned no Group");
+			}
+			shareWithGroup(group, index);
+			return group;
+		}
+
+		/*
+		 * Release the Group's downstream Groups and, if it ran, its slot.
+		 * 
+		 * @returns false once every Group is done and the Space is complete
+		 */
+		private boolean groupDone(int index, boolean isSlotFreed) {
+			synchronized (this) {
+				if (isSlotFreed) {
+					freeSlots++;
+				}
+				for (int downstream : downstreamGroups.get(index)) {
+					if (--pendingUpstream[downstream] == 0) {
+						readyGroups.add(downstream);
+					}
+				}
+			}
+			if (remainingGroups.decrementAndGet() == 0) {
+				spaceFuture.complete(collectResults());
+				return false;
+			}
+			return true;
+		}
+
+		private synchronized boolean isLeafGroup(int index) {
+			return downstreamGroups.get(index).isEmpty();
+		}
+
+		private boolean isJournaledComplete(int index) {
+			Group<T> group = groups.get(index);
+			return journal != null && (group == null || group.isJournaled())
+					&& journal.isGroupComplete(index);
+		}
+
+		// @returns the failure to stop the Space with, if any
+		private Throwable journalGroup(int index) {
+			Group<T> group = runGroups.get(index);
+			if (journal == null || !group.isJournaled()) {
+				return null;
+			}
+			try {
+				// A reduced Group's Result is empty, so count its tasks
+				journal.recordGroup(index, group.getTaskCount());
+				return null;
+			} catch (IOException e) {
+				return new IllegalStateException("Group: " + index
+						+ " could not be journaled", e);
+			}
+		}
+
+		private void stop(Throwable failure) {
+			if (spaceFuture.isDone()) {
+				return;
+			}
+			if (failure instanceof IllegalStateException
+					&& !(failure instanceof CancellationException)) {
+				System.out.println(failure.getMessage());
+				dumpTrace();
+				spaceFuture.completeExceptionally(new IllegalStateException(
+						"Solver Stopping - no further processing", failure));
+			} else {
+				if (!(failure instanceof CancellationException)) {
+					dumpTrace();
+				}
+				spaceFuture.completeExceptionally(failure);
+			}
+		}
 
-		for (Group<T> group : groups) {
+		// Keep the events leading up to a failure, if given a directory
+		private void dumpTrace() {
+			if (traceDirectory == null) {
+				return;
+			}
+			Path dump = traceDirectory.resolve("workgroup-trace-"
+					+ System.currentTimeMillis() + ".bin");
 			try {
-				results.add(group.processGroup());
-			} catch (IllegalStateException e) {
-				System.out.println(e.getMessage());
-				throw new IllegalStateException(
-						"Solver Stopping - no further processing", e);
+				EventRing.getDefault().dump(dump);
+				System.out.println("Trace dumped to: " + dump);
+			} catch (IOException e) {
+				System.out.println("Trace could not be dumped to: " + dump
+						+ " - " + e.getMessage());
 			}
 		}
 
-		return results;
+		private void cancelGroups() {
+			for (int i = 0; i < groupFutures.length(); i++) {
+				CompletableFuture<Result<T>> groupFuture = groupFutures.get(i);
+				if (groupFuture != null) {
+					groupFuture.cancel(true);
+				}
+			}
+		}
+
+		private List<Result<T>> collectResults() {
+			List<Result<T>> results = new ArrayList<Result<T>>(groups.size());
+			for (int i = 0; i < groupFutures.length(); i++) {
+				results.add(groupFutures.get(i).join());
+			}
+			return results;
+		}
 	}
 
 	public static class SpaceBuilder<T> {
 		private final List<Group<T>> groups = new ArrayList<Group<T>>();
+		private final List<GroupFactory<T>> groupFactories = new ArrayList<GroupFactory<T>>();
+		private final List<int[]> upstreamGroups = new ArrayList<int[]>();
+		private int parallelism = 1;
+		private ExecutorService executorService;
+		private ExecutorService retryExecutorService;
+		private WorkgroupMetrics metrics;
+		private ResultCache<T> resultCache;
+		private RateLimiter rateLimiter;
+		private Coordinator coordinator;
+		private ResultJournal<T> journal;
+		private Path traceDirectory;
 
 		public Space<T> build() {
 			return new Space<T>(this);
 		}
 
 		public SpaceBuilder<T> addGroup(Group<T> group) {
+			return addGroup(group, new int[0]);
+		}
+
+		/*
+		 * Add a Group that starts once the Groups at the upstream positions
+		 * have completed. Positions count from 0 in the order Groups are
+		 * added, and only earlier Groups can be depended on, so a Space can
+		 * never hold a cycle.
+		 */
+		public SpaceBuilder<T> addGroup(Group<T> group, int... upstream) {
+			return addNode(group, null, upstream);
+		}
+
+		/*
+		 * Add a Group to be built by the factory from the Results of the
+		 * upstream Groups once they have completed.
+		 */
+		public SpaceBuilder<T> addGroup(GroupFactory<T> groupFactory,
+				int... upstream) {
+			return addNode(null, groupFactory, upstream);
+		}
+
+		private SpaceBuilder<T> addNode(Group<T> group,
+				GroupFactory<T> groupFactory, int[] upstream) {
+			for (int u : upstream) {
+				if (u < 0 || u >= groups.size()) {
+					throw new IllegalArgumentException(
+							"Upstream Group must already be added: " + u);
+				}
+			}
 			groups.add(group);
+			groupFactories.add(groupFactory);
+			upstreamGroups.add(upstream.clone());
+			return this;
+		}
+
+		/*
+		 * Maximum number of Groups processed at once. The default of one
+		 * processes the Groups sequentially.
+		 */
+		public SpaceBuilder<T> parallelism(int parallelism) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException(
+						"Parallelism must be at least 1: " + parallelism);
+			}
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/*
+		 * Executor shared by all Groups in the Space that were not built with
+		 * their own.
+		 */
+		public SpaceBuilder<T> executorService(ExecutorService executorService) {
+			this.executorService = executorService;
+			return this;
+		}
+
+		/*
+		 * Retry executor shared by all Groups in the Space that were not built
+		 * with their own.
+		 */
+		public SpaceBuilder<T> retryExecutorService(
+				ExecutorService retryExecutorService) {
+			this.retryExecutorService = retryExecutorService;
+			return this;
+		}
+
+		/*
+		 * Metrics shared by all Groups in the Space that were not built with
+		 * their own, also recording the Space's own duration.
+		 */
+		public SpaceBuilder<T> metrics(WorkgroupMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/*
+		 * Result cache for keyed callables in Groups built without their
+		 * own. Reuse it across Spaces to skip tasks already computed.
+		 */
+		public SpaceBuilder<T> resultCache(ResultCache<T> resultCache) {
+			this.resultCache = resultCache;
+			return this;
+		}
+
+		/*
+		 * Rate limit on task starts, together across the Groups built
+		 * without their own.
+		 */
+		public SpaceBuilder<T> rateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
+		}
+
+		/*
+		 * Run the tasks of Groups built without their own Coordinator on its
+		 * workers. Batched and primitive Groups still run locally.
+		 */
+		public SpaceBuilder<T> coordinator(Coordinator coordinator) {
+			this.coordinator = coordinator;
+			return this;
+		}
+
+		/*
+		 * Journal completed tasks and Groups, and resume from what the
+		 * journal already holds. The caller opens and closes the journal.
+		 */
+		public SpaceBuilder<T> journal(ResultJournal<T> journal) {
+			this.journal = journal;
+			return this;
+		}
+
+		/*
+		 * When the Space fails, dump the EventRing into this directory for
+		 * TraceTimeline, as workgroup-trace-<millis>.bin.
+		 */
+		public SpaceBuilder<T> traceOnFailure(Path traceDirectory) {
+			this.traceDirectory = traceDirectory;
 			return this;
 		}
 	}
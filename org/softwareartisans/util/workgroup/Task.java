@@ -25,6 +25,7 @@ package org.softwareartisans.util.workgroup;
  */
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /*
  * Wrapper class for Callable<T> makes it possible to properly track callables
@@ -34,8 +35,12 @@ import java.util.concurrent.Callable;
 public class Task<T> {
 	private final int taskId;
 	private final Callable<T> callable;
-	private boolean isComplete;
+	private final Object taskKey;
+	private volatile boolean isComplete;
 	private T result;
+	private volatile Future<?> future;
+	private volatile Future<?> hedgeFuture;
+	private int runningCopies;
 
 	public T getResult() {
 		return result;
@@ -46,9 +51,14 @@ public class Task<T> {
 	}
 
 	public Task(int taskId, Callable<T> task) {
+		this(taskId, task, null);
+	}
+
+	Task(int taskId, Callable<T> task, Object taskKey) {
 		super();
 		this.taskId = taskId;
 		this.callable = task;
+		this.taskKey = taskKey;
 	}
 
 	public int getTaskId() {
@@ -59,6 +69,11 @@ public class Task<T> {
 		return callable;
 	}
 
+	// Identifies the task's result in a ResultCache, if any
+	Object getTaskKey() {
+		return taskKey;
+	}
+
 	public boolean isComplete() {
 		return isComplete;
 	}
@@ -67,4 +82,43 @@ public class Task<T> {
 		this.isComplete = isComplete;
 	}
 
+	// The in-flight execution of this task, if any
+	Future<?> getFuture() {
+		return future;
+	}
+
+	void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	// A speculative duplicate of the in-flight execution, if any
+	Future<?> getHedgeFuture() {
+		return hedgeFuture;
+	}
+
+	void setHedgeFuture(Future<?> hedgeFuture) {
+		this.hedgeFuture = hedgeFuture;
+	}
+
+	/*
+	 * Claim the task's completion. With hedging two copies may succeed, and
+	 * only the first one to claim the task may report its result.
+	 */
+	synchronized boolean markComplete() {
+		if (isComplete) {
+			return false;
+		}
+		isComplete = true;
+		return true;
+	}
+
+	synchronized void copyStarted() {
+		runningCopies++;
+	}
+
+	// @returns the number of copies of this task still running
+	synchronized int copyFinished() {
+		return --runningCopies;
+	}
+
 }
@@ -0,0 +1,188 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/*
+ * FutureTask that carries its task and reports itself to the Group once it
+ * completes, on the thread that ran it. Carrying the task removes the need
+ * for a future-to-task map, and the race where a retried future completed
+ * before it was mapped.
+ * 
+ * It also keeps what the Group needs to police the execution: when it started
+ * running, the timers for its deadline and hedge, and whether it was
+ * cancelled for running past its deadline.
+ */
+class TaskFuture<T> extends FutureTask<T> {
+	interface Listener<T> {
+		void taskStarted(TaskFuture<T> future);
+
+		void taskDone(TaskFuture<T> future);
+	}
+
+	private final Task<T> task;
+	private final Listener<T> listener;
+	private final boolean isHedge;
+	// Whether dispatch or cancellation got to the future first
+	private final AtomicBoolean isSubmissionDecided = new AtomicBoolean();
+	private final long submitNanos = System.nanoTime();
+	private volatile long startNanos;
+	private volatile boolean isTimedOut;
+	private volatile ScheduledFuture<?> deadline;
+	private volatile ScheduledFuture<?> hedge;
+	private volatile ScheduledFuture<?> dispatch;
+	private volatile Future<?> remote;
+
+	TaskFuture(Task<T> task, Callable<T> callable, Listener<T> listener,
+			boolean isHedge) {
+		super(callable);
+		this.task = task;
+		this.listener = listener;
+		this.isHedge = isHedge;
+	}
+
+	Task<T> getTask() {
+		return task;
+	}
+
+	/*
+	 * Claim the future for submission to an executor or Coordinator.
+	 * 
+	 * @returns false if it was cancelled before it could be submitted
+	 */
+	boolean markSubmitted() {
+		return isSubmissionDecided.compareAndSet(false, true);
+	}
+
+	/*
+	 * For a cancelled future, whether it had been submitted; it can no
+	 * longer be after this.
+	 */
+	boolean wasSubmitted() {
+		return !isSubmissionDecided.compareAndSet(false, true);
+	}
+
+	// A speculative copy rather than the task's own execution
+	boolean isHedge() {
+		return isHedge;
+	}
+
+	// Nanoseconds since the task started running, or zero if it never ran
+	long getRunNanos() {
+		long start = startNanos;
+		return start == 0 ? 0 : System.nanoTime() - start;
+	}
+
+	// Nanoseconds spent waiting for a thread, up to now if still waiting
+	long getQueueNanos() {
+		long start = startNanos;
+		return (start == 0 ? System.nanoTime() : start) - submitNanos;
+	}
+
+	boolean isTimedOut() {
+		return isTimedOut;
+	}
+
+	// Cancel an execution that ran past its deadline
+	void timeOut() {
+		isTimedOut = true;
+		cancel(true);
+	}
+
+	void setDeadline(ScheduledFuture<?> deadline) {
+		this.deadline = deadline;
+	}
+
+	void setHedge(ScheduledFuture<?> hedge) {
+		this.hedge = hedge;
+	}
+
+	// A start delayed by a RateLimiter
+	void setDispatch(ScheduledFuture<?> dispatch) {
+		this.dispatch = dispatch;
+	}
+
+	/*
+	 * Run on a Coordinator's worker rather than by an executor: the run
+	 * starts now and the remote outcome completes this future.
+	 */
+	void runRemotely(CompletableFuture<T> remote) {
+		startNanos = System.nanoTime();
+		listener.taskStarted(this);
+		this.remote = remote;
+		remote.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable failure) {
+				if (failure != null) {
+					setException(failure);
+				} else {
+					set(result);
+				}
+			}
+		});
+	}
+
+	// Also drops a remote run not yet sent to a worker
+	void cancelTimers() {
+		Future<?> remoteRun = remote;
+		if (remoteRun != null) {
+			remoteRun.cancel(false);
+		}
+		ScheduledFuture<?> timer = dispatch;
+		if (timer != null) {
+			timer.cancel(false);
+		}
+		timer = deadline;
+		if (timer != null) {
+			timer.cancel(false);
+		}
+		timer = hedge;
+		if (timer != null) {
+			timer.cancel(false);
+		}
+	}
+
+	@Override
+	public void run() {
+		startNanos = System.nanoTime();
+		// Not run at all once cancelled
+		if (!isDone()) {
+			listener.taskStarted(this);
+		}
+		super.run();
+	}
+
+	@Override
+	protected void done() {
+		listener.taskDone(this);
+	}
+}
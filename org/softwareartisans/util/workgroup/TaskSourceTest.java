@@ -0,0 +1,174 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+
+/*
+ * Driver for Groups fed lazily from a task source: a long source on an
+ * executor that runs every task inline, which must not nest a call per
+ * task, and a source on a pool, which must never have more than
+ * maxInFlight tasks running.
+ */
+class TaskSourceTest {
+	private static final int INLINE_TASKS = 200000;
+	private static final int POOLED_TASKS = 2000;
+	private static final int MAX_IN_FLIGHT = 8;
+
+	public static void main(String[] args) {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		Result<Integer> inline = new GroupBuilder<Integer>()
+				.executorService(new DirectExecutor())
+				.taskSource(new Counter(INLINE_TASKS, 1000, running, peak), 1)
+				.build().processGroup();
+		System.out.println("Inline: " + inline.getWorkGroupResult().size()
+				+ " tasks, peak in flight: " + peak.get());
+		check(inline, INLINE_TASKS, peak.get(), 1);
+
+		running.set(0);
+		peak.set(0);
+		Result<Integer> pooled = new GroupBuilder<Integer>()
+				.threadPoolSize(4 * MAX_IN_FLIGHT)
+				.taskSource(new Counter(POOLED_TASKS, 1, running, peak),
+						MAX_IN_FLIGHT).build().processGroup();
+		System.out.println("Pooled: " + pooled.getWorkGroupResult().size()
+				+ " tasks, peak in flight: " + peak.get());
+		check(pooled, POOLED_TASKS, peak.get(), MAX_IN_FLIGHT);
+	}
+
+	private static void check(Result<Integer> result, int taskCount,
+			int peak, int maxInFlight) {
+		List<Integer> results = result.getWorkGroupResult();
+		if (results.size() != taskCount) {
+			throw new IllegalStateException("Expected " + taskCount
+					+ " results, got " + results.size());
+		}
+		for (int i = 0; i < taskCount; i++) {
+			if (results.get(i) != i) {
+				throw new IllegalStateException("Result " + i + " out of order: "
+						+ results.get(i));
+			}
+		}
+		if (peak > maxInFlight) {
+			throw new IllegalStateException("Peak in flight " + peak
+					+ " exceeded " + maxInFlight);
+		}
+	}
+
+	/*
+	 * Yields count tasks, each pauseEvery'th pausing for a millisecond, that
+	 * track how many of them run at once
+	 */
+	private static class Counter implements Iterator<Callable<Integer>> {
+		private final int count;
+		private final int pauseEvery;
+		private final AtomicInteger running;
+		private final AtomicInteger peak;
+		private int next = 0;
+
+		Counter(int count, int pauseEvery, AtomicInteger running,
+				AtomicInteger peak) {
+			this.count = count;
+			this.pauseEvery = pauseEvery;
+			this.running = running;
+			this.peak = peak;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < count;
+		}
+
+		@Override
+		public Callable<Integer> next() {
+			final int number = next++;
+			return new Callable<Integer>() {
+				@Override
+				public Integer call() throws InterruptedException {
+					int now = running.incrementAndGet();
+					int seen;
+					while (now > (seen = peak.get())
+							&& !peak.compareAndSet(seen, now)) {
+					}
+					if (number % pauseEvery == 0) {
+						Thread.sleep(1);
+					}
+					running.decrementAndGet();
+					return number;
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// Runs each task on the submitting thread
+	private static class DirectExecutor extends AbstractExecutorService {
+		private volatile boolean isShutdown = false;
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+			isShutdown = true;
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			isShutdown = true;
+			return new ArrayList<Runnable>();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return isShutdown;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return isShutdown;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+}
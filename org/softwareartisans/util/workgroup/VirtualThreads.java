@@ -0,0 +1,106 @@
+package org.softwareartisans.util.workgroup;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Creates thread-per-task executors backed by virtual threads when the
+ * running JVM supports them (Java 21+). The factory method is looked up
+ * reflectively so the library still runs on older JVMs, where a platform
+ * thread pool is used instead: fixed at the concurrency cap when there is
+ * one, since a thread per task would then mostly sit waiting for a permit.
+ */
+final class VirtualThreads {
+	private static final Method newVirtualThreadPerTaskExecutor = lookupFactory();
+
+	private VirtualThreads() {
+	}
+
+	static boolean isAvailable() {
+		return newVirtualThreadPerTaskExecutor != null;
+	}
+
+	static ExecutorService newExecutor() {
+		return newExecutor(0);
+	}
+
+	// maxConcurrency of zero is unbounded
+	static ExecutorService newExecutor(int maxConcurrency) {
+		if (newVirtualThreadPerTaskExecutor == null) {
+			return maxConcurrency > 0 ? Executors
+					.newFixedThreadPool(maxConcurrency) : Executors
+					.newCachedThreadPool();
+		}
+		try {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor
+					.invoke(null);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(
+					"Could not create virtual thread executor", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(
+					"Could not create virtual thread executor", e.getCause());
+		}
+	}
+
+	private static Method lookupFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Caps the number of tasks running at once when every task gets its own
+	 * thread. A waiting virtual thread is parked cheaply, so the permit is
+	 * taken inside the task rather than holding back submission.
+	 */
+	static class BoundedCallable<T> implements Callable<T> {
+		private final Callable<T> callable;
+		private final Semaphore permits;
+
+		BoundedCallable(Callable<T> callable, Semaphore permits) {
+			this.callable = callable;
+			this.permits = permits;
+		}
+
+		@Override
+		public T call() throws Exception {
+			permits.acquire();
+			try {
+				return callable.call();
+			} finally {
+				permits.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,503 @@
+package org.softwareartisans.util.workgroup.distributed;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.softwareartisans.util.workgroup.distributed.Protocol.Frame;
+
+/*
+ * Runs tasks on Worker processes, on this host or others, that connect to
+ * it over TCP. Given to a GroupBuilder or SpaceBuilder, it takes the place
+ * of the local task executor: each task's callable is serialized to a
+ * worker with a free slot and its result or failure is sent back to
+ * complete the task, so retries, deadlines and hedging are still decided by
+ * the Group and its Retrier.
+ * 
+ * Tasks wait here until a worker has a free slot, going to the least loaded
+ * worker first, so the workers can join and leave while Groups run. A
+ * worker whose connection drops or that misses its heartbeats is dropped
+ * and its running tasks are reassigned to the other workers. A task whose
+ * workers keep dying, e.g. because it crashes them, fails after
+ * MAX_REASSIGNMENTS with a WorkerLostException for the Retrier to judge.
+ * A task cancelled by its Group, e.g. on timing out, frees its slot at once
+ * and its worker interrupts it.
+ * 
+ * Callables and their results must be Serializable, and their classes must
+ * be on every worker's classpath and allowed by the Protocol's
+ * serialization filter.
+ * 
+ * Workers are trusted: any process that can connect is sent tasks, and
+ * what it sends back is deserialized, within the filter, as their results.
+ * The Coordinator therefore listens on the loopback interface unless given
+ * another address, which should only be one reachable by the intended
+ * workers, e.g. on a private network.
+ */
+public class Coordinator implements Closeable {
+	private static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+	private static final int MAX_REASSIGNMENTS = 2;
+	private static final int ACCEPT_BACKLOG = 50;
+
+	private final ServerSocket serverSocket;
+	private final long heartbeatInterval;
+	private final ScheduledExecutorService heartbeats;
+	private final AtomicLong nextRequestId = new AtomicLong();
+
+	// guarded by this
+	private final List<WorkerConnection> workers = new ArrayList<WorkerConnection>();
+	private final ArrayDeque<RemoteTask> pendingTasks = new ArrayDeque<RemoteTask>();
+	private boolean isClosed = false;
+
+	// Listen on port, or on a free port if zero, of the loopback interface
+	public Coordinator(int port) throws IOException {
+		this(port, DEFAULT_HEARTBEAT_INTERVAL);
+	}
+
+	public Coordinator(int port, long heartbeatInterval) throws IOException {
+		this(port, heartbeatInterval, InetAddress.getLoopbackAddress());
+	}
+
+	// Listen on bindAddress, or on every interface if null
+	public Coordinator(int port, long heartbeatInterval,
+			InetAddress bindAddress) throws IOException {
+		if (heartbeatInterval < 1) {
+			throw new IllegalArgumentException(
+					"Heartbeat interval must be at least 1ms: "
+							+ heartbeatInterval);
+		}
+		this.heartbeatInterval = heartbeatInterval;
+		this.serverSocket = new ServerSocket(port, ACCEPT_BACKLOG, bindAddress);
+
+		Thread acceptor = new Thread(new Acceptor(), "workgroup-coordinator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		heartbeats = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"workgroup-coordinator-heartbeat");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		heartbeats.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				sendHeartbeats();
+			}
+		}, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public synchronized int getWorkerCount() {
+		return workers.size();
+	}
+
+	/*
+	 * Wait up to timeout milliseconds for at least count workers to be
+	 * connected.
+	 * 
+	 * @returns whether they connected in time
+	 */
+	public synchronized boolean awaitWorkers(int count, long timeout)
+			throws InterruptedException {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (workers.size() < count) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+					- System.nanoTime());
+			if (remaining <= 0 || isClosed) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/*
+	 * Run the callable on a worker. The future fails with the task's own
+	 * exception, a WorkerLostException, or an IOException if the callable
+	 * or its result cannot be serialized or the Coordinator is closed.
+	 * Cancelling the future drops the task if it has not been sent yet, and
+	 * otherwise interrupts it on its worker.
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> callable) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		byte[] payload;
+		try {
+			payload = Protocol.serializer.serialize(callable);
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Object> result = (CompletableFuture<Object>) (CompletableFuture<?>) future;
+		final RemoteTask task = new RemoteTask(
+				nextRequestId.incrementAndGet(), payload, result);
+		result.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object value, Throwable failure) {
+				if (failure instanceof CancellationException) {
+					cancelled(task);
+				}
+			}
+		});
+		boolean isRejected = true;
+		synchronized (this) {
+			if (!isClosed) {
+				pendingTasks.add(task);
+				isRejected = false;
+			}
+		}
+		if (isRejected) {
+			future.completeExceptionally(new IOException("Coordinator closed"));
+			return future;
+		}
+		dispatch();
+		return future;
+	}
+
+	/*
+	 * Stop accepting workers and disconnect those connected, which ends
+	 * their processes. Tasks not yet finished fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		List<RemoteTask> unfinished = new ArrayList<RemoteTask>();
+		List<WorkerConnection> closed;
+		synchronized (this) {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+			unfinished.addAll(pendingTasks);
+			pendingTasks.clear();
+			for (WorkerConnection worker : workers) {
+				unfinished.addAll(worker.runningTasks.values());
+				worker.runningTasks.clear();
+			}
+			closed = new ArrayList<WorkerConnection>(workers);
+			workers.clear();
+			notifyAll();
+		}
+		heartbeats.shutdownNow();
+		try {
+			serverSocket.close();
+		} finally {
+			for (WorkerConnection worker : closed) {
+				worker.close();
+			}
+			for (RemoteTask task : unfinished) {
+				task.future.completeExceptionally(new IOException(
+						"Coordinator closed"));
+			}
+		}
+	}
+
+	/*
+	 * Send pending tasks to the least loaded workers with a free slot.
+	 * Tasks are assigned under the lock but sent outside it.
+	 */
+	private void dispatch() {
+		while (true) {
+			WorkerConnection worker = null;
+			RemoteTask task;
+			synchronized (this) {
+				for (WorkerConnection candidate : workers) {
+					int free = candidate.slots - candidate.runningTasks.size();
+					if (free > 0
+							&& (worker == null || free > worker.slots
+									- worker.runningTasks.size())) {
+						worker = candidate;
+					}
+				}
+				if (worker == null) {
+					return;
+				}
+				// Skip tasks whose futures were cancelled while waiting
+				do {
+					task = pendingTasks.poll();
+				} while (task != null && task.future.isDone());
+				if (task == null) {
+					return;
+				}
+				worker.runningTasks.put(task.requestId, task);
+				task.worker = worker;
+			}
+
+			try {
+				worker.send(Protocol.TASK, task.requestId, task.payload);
+				if (task.future.isCancelled()) {
+					// Its CANCEL may have gone out first
+					worker.send(Protocol.CANCEL, task.requestId, null);
+				}
+			} catch (IOException e) {
+				workerLost(worker, e);
+			}
+		}
+	}
+
+	private void taskFinished(WorkerConnection worker, Frame frame) {
+		RemoteTask task;
+		synchronized (this) {
+			task = worker.runningTasks.remove(frame.id);
+		}
+		if (task != null) {
+			try {
+				Object value = Protocol.deserialize(frame.payload);
+				if (frame.type == Protocol.RESULT) {
+					task.future.complete(value);
+				} else if (value instanceof Throwable) {
+					task.future.completeExceptionally((Throwable) value);
+				} else {
+					task.future.completeExceptionally(new IOException(
+							"Malformed failure from worker: " + worker.address));
+				}
+			} catch (IOException e) {
+				task.future.completeExceptionally(e);
+			}
+		}
+		dispatch();
+	}
+
+	// Free a cancelled task's slot, and have its worker interrupt it
+	private void cancelled(RemoteTask task) {
+		WorkerConnection worker;
+		synchronized (this) {
+			worker = task.worker;
+			if (worker == null
+					|| worker.runningTasks.get(task.requestId) != task) {
+				// Still pending, to be skipped by dispatch, or already over
+				return;
+			}
+			worker.runningTasks.remove(task.requestId);
+		}
+		try {
+			worker.send(Protocol.CANCEL, task.requestId, null);
+		} catch (IOException e) {
+			workerLost(worker, e);
+		}
+		dispatch();
+	}
+
+	/*
+	 * Drop a dead worker and put its running tasks at the front of the
+	 * queue, failing those already reassigned too often.
+	 */
+	private void workerLost(WorkerConnection worker, IOException cause) {
+		List<RemoteTask> lost = new ArrayList<RemoteTask>();
+		synchronized (this) {
+			if (!workers.remove(worker)) {
+				return;
+			}
+			for (RemoteTask task : worker.runningTasks.values()) {
+				if (task.reassignments++ < MAX_REASSIGNMENTS) {
+					pendingTasks.addFirst(task);
+				} else {
+					lost.add(task);
+				}
+			}
+			worker.runningTasks.clear();
+		}
+		worker.close();
+		for (RemoteTask task : lost) {
+			task.future.completeExceptionally(new WorkerLostException(
+					"Worker: " + worker.address + " lost running request: "
+							+ task.requestId, cause));
+		}
+		dispatch();
+	}
+
+	private void sendHeartbeats() {
+		List<WorkerConnection> connected;
+		synchronized (this) {
+			connected = new ArrayList<WorkerConnection>(workers);
+		}
+		for (WorkerConnection worker : connected) {
+			try {
+				worker.send(Protocol.HEARTBEAT, 0, null);
+			} catch (IOException e) {
+				workerLost(worker, e);
+			}
+		}
+	}
+
+	private static final class RemoteTask {
+		private final long requestId;
+		private final byte[] payload;
+		private final CompletableFuture<Object> future;
+		// guarded by the Coordinator
+		private int reassignments = 0;
+		private WorkerConnection worker;
+
+		RemoteTask(long requestId, byte[] payload,
+				CompletableFuture<Object> future) {
+			this.requestId = requestId;
+			this.payload = payload;
+			this.future = future;
+		}
+	}
+
+	/*
+	 * Accepts workers and shakes hands with each before it is given tasks.
+	 * Each handshake runs on the connection's own thread, so a client that
+	 * connects and stays silent cannot hold up the workers behind it.
+	 */
+	private class Acceptor implements Runnable {
+		@Override
+		public void run() {
+			int connections = 0;
+			while (!serverSocket.isClosed()) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (IOException e) {
+					// Closed
+					return;
+				}
+				Thread reader = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						connect(socket);
+					}
+				}, "workgroup-coordinator-worker-" + connections++);
+				reader.setDaemon(true);
+				reader.start();
+			}
+		}
+
+		// Runs on the connection's own thread, then reads its results
+		private void connect(Socket socket) {
+			WorkerConnection worker;
+			try {
+				worker = new WorkerConnection(socket);
+			} catch (IOException e) {
+				try {
+					socket.close();
+				} catch (IOException ignored) {
+				}
+				return;
+			}
+			synchronized (Coordinator.this) {
+				if (isClosed) {
+					worker.close();
+					return;
+				}
+				workers.add(worker);
+				Coordinator.this.notifyAll();
+			}
+			dispatch();
+			worker.run();
+		}
+	}
+
+	private class WorkerConnection implements Runnable {
+		private final Socket socket;
+		private final SocketAddress address;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final int slots;
+		// guarded by the Coordinator
+		private final Map<Long, RemoteTask> runningTasks = new HashMap<Long, RemoteTask>();
+
+		// Shake hands: the worker's HELLO, then ours
+		WorkerConnection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.address = socket.getRemoteSocketAddress();
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+					heartbeatInterval * Protocol.HEARTBEAT_TOLERANCE));
+			in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(
+					socket.getOutputStream()));
+
+			Frame hello = Protocol.read(in);
+			if (hello.type != Protocol.HELLO
+					|| Protocol.readVersion(hello.payload) != Protocol.VERSION
+					|| hello.id < 1) {
+				throw new IOException("Bad handshake from worker: " + address);
+			}
+			slots = (int) Math.min(Integer.MAX_VALUE, hello.id);
+			send(Protocol.HELLO, heartbeatInterval, null);
+		}
+
+		void send(byte type, long id, byte[] payload) throws IOException {
+			Protocol.write(out, type, id, payload);
+		}
+
+		// Read results until the worker is lost
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Frame frame = Protocol.read(in);
+					if (frame.type == Protocol.RESULT
+							|| frame.type == Protocol.FAILURE) {
+						taskFinished(this, frame);
+					}
+				}
+			} catch (IOException e) {
+				workerLost(this, e);
+			}
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
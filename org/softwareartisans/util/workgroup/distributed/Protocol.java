@@ -0,0 +1,163 @@
+package org.softwareartisans.util.workgroup.distributed;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+
+import org.softwareartisans.util.workgroup.journal.JavaSerializer;
+
+/*
+ * Frames exchanged between a Coordinator and its Workers over TCP: a type
+ * (byte), a request id (long) and a length prefixed payload. Tasks, results
+ * and failures are carried Java serialized.
+ * 
+ * Every payload is read through a serialization filter, so a peer can only
+ * have classes from java.* and this library instantiated, plus those allowed
+ * by the system property workgroup.distributed.serialFilter, a JDK filter
+ * pattern (e.g. "com.example.tasks.**") checked before the defaults. Task
+ * and result classes outside those packages must be allowed there, on the
+ * Coordinator and on every Worker.
+ * 
+ * HELLO from a worker carries its task slots as the id and the protocol
+ * version as the payload; the coordinator answers with a HELLO carrying the
+ * heartbeat interval in milliseconds. TASK, RESULT and FAILURE share the id
+ * of the request. CANCEL from the coordinator interrupts a running request,
+ * which then gets no reply. Both ends send HEARTBEATs and give up on a peer
+ * silent for HEARTBEAT_TOLERANCE intervals.
+ */
+final class Protocol {
+	static final int VERSION = 2;
+	static final int HEARTBEAT_TOLERANCE = 3;
+
+	static final byte HELLO = 1;
+	static final byte TASK = 2;
+	static final byte RESULT = 3;
+	static final byte FAILURE = 4;
+	static final byte HEARTBEAT = 5;
+	static final byte CANCEL = 6;
+
+	private static final int MAX_PAYLOAD = 256 << 20;
+	private static final String DEFAULT_FILTER = "maxdepth=100;java.**;"
+			+ "org.softwareartisans.**;!*";
+	private static final ObjectInputFilter filter = createFilter(System
+			.getProperty("workgroup.distributed.serialFilter"));
+	private static final byte[] EMPTY = new byte[0];
+
+	// Only for writing; payloads are read by deserialize
+	static final JavaSerializer<Object> serializer = new JavaSerializer<Object>();
+
+	private Protocol() {
+	}
+
+	static final class Frame {
+		final byte type;
+		final long id;
+		final byte[] payload;
+
+		Frame(byte type, long id, byte[] payload) {
+			this.type = type;
+			this.id = id;
+			this.payload = payload;
+		}
+	}
+
+	// Frames from several threads are written whole, one at a time
+	static void write(DataOutputStream out, byte type, long id, byte[] payload)
+			throws IOException {
+		if (payload == null) {
+			payload = EMPTY;
+		}
+		synchronized (out) {
+			out.writeByte(type);
+			out.writeLong(id);
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.flush();
+		}
+	}
+
+	static Frame read(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		long id = in.readLong();
+		int length = in.readInt();
+		if (length < 0 || length > MAX_PAYLOAD) {
+			throw new IOException("Bad frame length: " + length);
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return new Frame(type, id, payload);
+	}
+
+	/*
+	 * @throws IOException if the payload is malformed or holds a class the
+	 * filter rejects or that is not on the classpath
+	 */
+	static Object deserialize(byte[] payload) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				payload));
+		try {
+			in.setObjectInputFilter(filter);
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown class in payload", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	// The allowed pattern, if any, is checked before the defaults
+	static ObjectInputFilter createFilter(String allowed) {
+		String pattern = allowed == null || allowed.isEmpty() ? DEFAULT_FILTER
+				: allowed + ";" + DEFAULT_FILTER;
+		return ObjectInputFilter.Config.createFilter(pattern);
+	}
+
+	static byte[] versionPayload() {
+		return ByteBuffer.allocate(4).putInt(VERSION).array();
+	}
+
+	static int readVersion(byte[] payload) {
+		return payload.length == 4 ? ByteBuffer.wrap(payload).getInt() : -1;
+	}
+
+	/*
+	 * A failure that cannot itself be serialized, e.g. one holding a
+	 * reference to something that is not, is sent as its description.
+	 */
+	static byte[] serializeFailure(Throwable failure) throws IOException {
+		try {
+			return serializer.serialize(failure);
+		} catch (IOException e) {
+			return serializer.serialize(new IOException(
+					"Unserializable task failure: " + failure));
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package org.softwareartisans.util.workgroup.distributed;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.softwareartisans.util.workgroup.Group.GroupBuilder;
+import org.softwareartisans.util.workgroup.retry.ImmediateCounting;
+
+/*
+ * Driver for tasks that time out on a Worker: their slots must be freed
+ * and their threads interrupted as soon as they are cancelled, so a batch
+ * that fills every slot right after runs at once rather than queueing
+ * behind them.
+ */
+class RemoteCancelTest {
+	private static final int SLOTS = 4;
+	private static final int TASK_MILLIS = 200;
+
+	// The worker runs in this process, so hung tasks can report back
+	private static final AtomicInteger interrupted = new AtomicInteger();
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		Coordinator coordinator = new Coordinator(0, 200);
+		final Worker worker = new Worker("localhost", coordinator.getPort(),
+				SLOTS);
+		Thread workerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					worker.run();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, "worker");
+		workerThread.setDaemon(true);
+		workerThread.start();
+		if (!coordinator.awaitWorkers(1, 10000)) {
+			throw new IllegalStateException("Worker did not connect");
+		}
+
+		try {
+			for (int i = 0; i < SLOTS - 1; i++) {
+				try {
+					new GroupBuilder<Integer>().coordinator(coordinator)
+							.taskTimeout(50)
+							.retrier(new ImmediateCounting(0, 0, 0))
+							.addCallable(new Sleep(60000)).build()
+							.processGroup();
+				} catch (IllegalStateException e) {
+					System.out.println(e.getMessage());
+				}
+			}
+
+			GroupBuilder<Integer> batch = new GroupBuilder<Integer>()
+					.coordinator(coordinator);
+			for (int i = 0; i < SLOTS; i++) {
+				batch.addCallable(new Sleep(TASK_MILLIS));
+			}
+			long start = System.nanoTime();
+			batch.build().processGroup();
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- start);
+
+			Thread.sleep(100);
+			System.out.println("Batch of " + SLOTS + " " + TASK_MILLIS
+					+ "ms tasks took " + millis + "ms, timed out tasks"
+					+ " interrupted: " + interrupted.get());
+			if (millis >= 2 * TASK_MILLIS) {
+				throw new IllegalStateException(
+						"Timed out tasks still hold their slots");
+			}
+		} finally {
+			coordinator.close();
+		}
+	}
+
+	private static class Sleep implements Callable<Integer>, Serializable {
+		private static final long serialVersionUID = 1L;
+		private final int millis;
+
+		Sleep(int millis) {
+			this.millis = millis;
+		}
+
+		@Override
+		public Integer call() throws InterruptedException {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				interrupted.incrementAndGet();
+				throw e;
+			}
+			return millis;
+		}
+	}
+}
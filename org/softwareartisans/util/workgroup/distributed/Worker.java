@@ -0,0 +1,213 @@
+package org.softwareartisans.util.workgroup.distributed;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.softwareartisans.util.workgroup.distributed.Protocol.Frame;
+
+/*
+ * A worker process for a Coordinator. It runs the tasks it is sent on a
+ * pool of slots threads and returns each result or failure, until the
+ * Coordinator closes or goes silent, at which point it exits. A task the
+ * Coordinator cancels is interrupted.
+ * 
+ * A worker runs whatever code its Coordinator sends it, within the classes
+ * the Protocol's serialization filter allows, so it must only be pointed
+ * at a Coordinator that is trusted, over a network that is.
+ * 
+ * Usage: java -cp <classpath with the task classes>
+ * [-Dworkgroup.distributed.serialFilter=<task and result packages>]
+ * org.softwareartisans.util.workgroup.distributed.Worker host port [slots]
+ * 
+ * Slots default to the number of processors. Several workers can be run on
+ * one host, e.g. to try out a distributed Space locally.
+ */
+public class Worker {
+	private final String host;
+	private final int port;
+	private final int slots;
+
+	public Worker(String host, int port, int slots) {
+		if (slots < 1) {
+			throw new IllegalArgumentException("Slots must be at least 1: "
+					+ slots);
+		}
+		this.host = host;
+		this.port = port;
+		this.slots = slots;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: Worker host port [slots]");
+			System.exit(1);
+		}
+		int slots = args.length == 3 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		new Worker(args[0], Integer.parseInt(args[1]), slots).run();
+	}
+
+	/*
+	 * Connect and run tasks until the connection ends.
+	 * 
+	 * @throws IOException if the Coordinator cannot be reached or rejects
+	 * the handshake
+	 */
+	public void run() throws IOException {
+		final Socket socket = new Socket(host, port);
+		ExecutorService taskPool = Executors.newFixedThreadPool(slots);
+		ScheduledExecutorService heartbeats = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"workgroup-worker-heartbeat");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			Protocol.write(out, Protocol.HELLO, slots,
+					Protocol.versionPayload());
+			Frame hello = Protocol.read(in);
+			if (hello.type != Protocol.HELLO || hello.id < 1) {
+				throw new IOException("Bad handshake from coordinator: "
+						+ host + ":" + port);
+			}
+			long heartbeatInterval = hello.id;
+			socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+					heartbeatInterval * Protocol.HEARTBEAT_TOLERANCE));
+			heartbeats.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Protocol.write(out, Protocol.HEARTBEAT, 0, null);
+					} catch (IOException e) {
+						closeQuietly(socket);
+					}
+				}
+			}, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+
+			// Running and queued tasks by request id
+			Map<Long, Future<?>> executions = new ConcurrentHashMap<Long, Future<?>>();
+			while (true) {
+				Frame frame;
+				try {
+					frame = Protocol.read(in);
+				} catch (IOException e) {
+					// Closed by the Coordinator, or it went silent
+					return;
+				}
+				if (frame.type == Protocol.TASK) {
+					FutureTask<Void> execution = new FutureTask<Void>(
+							new RemoteExecution(socket, out, executions,
+									frame.id, frame.payload), null);
+					executions.put(frame.id, execution);
+					taskPool.execute(execution);
+				} else if (frame.type == Protocol.CANCEL) {
+					Future<?> execution = executions.remove(frame.id);
+					if (execution != null) {
+						execution.cancel(true);
+					}
+				}
+			}
+		} finally {
+			heartbeats.shutdownNow();
+			taskPool.shutdownNow();
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static class RemoteExecution implements Runnable {
+		private final Socket socket;
+		private final DataOutputStream out;
+		private final Map<Long, Future<?>> executions;
+		private final long requestId;
+		private final byte[] payload;
+
+		RemoteExecution(Socket socket, DataOutputStream out,
+				Map<Long, Future<?>> executions, long requestId, byte[] payload) {
+			this.socket = socket;
+			this.out = out;
+			this.executions = executions;
+			this.requestId = requestId;
+			this.payload = payload;
+		}
+
+		@Override
+		public void run() {
+			byte type;
+			byte[] reply;
+			try {
+				try {
+					Callable<?> callable = (Callable<?>) Protocol
+							.deserialize(payload);
+					reply = Protocol.serializer.serialize(callable.call());
+					type = Protocol.RESULT;
+				} catch (Throwable failure) {
+					reply = Protocol.serializeFailure(failure);
+					type = Protocol.FAILURE;
+				}
+				if (executions.remove(requestId) == null) {
+					// Cancelled, and the Coordinator has moved on
+					return;
+				}
+				Protocol.write(out, type, requestId, reply);
+			} catch (IOException e) {
+				// The connection is gone and the Coordinator will reassign
+				closeQuietly(socket);
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.softwareartisans.util.workgroup.journal;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/*
+ * Standard Java serialization, for results that are Serializable. Compact
+ * formats written for the result type will be smaller and faster.
+ */
+public class JavaSerializer<T> implements ResultSerializer<T> {
+	@Override
+	public byte[] serialize(T result) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		try {
+			out.writeObject(result);
+		} finally {
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T deserialize(byte[] data) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				data));
+		try {
+			return (T) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown result class", e);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package org.softwareartisans.util.workgroup.journal;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.softwareartisans.util.workgroup.Result;
+
+/*
+ * Append-only journal of completed tasks and Groups, so a Space that fails
+ * can be rebuilt the same way and resumed: finished Groups are not run
+ * again, and Groups that were part way through only run their unfinished
+ * tasks.
+ * 
+ * Records are appended to memory-mapped regions of the file, so a task
+ * result costs a copy into the page cache rather than a system call. Group
+ * records force the mapping to disk, making each finished Group a durable
+ * checkpoint. Every record carries a checksum; on opening, the journal is
+ * read up to the first missing, torn or unreadable record and the rest is
+ * discarded.
+ * 
+ * Record layout: type (byte), group id, task id or result count, payload
+ * length, CRC32 (ints), then the serialized result. The CRC covers the
+ * fields before it as well as the payload, so a zeroed header cannot pass
+ * for an empty record.
+ * 
+ * Journaled results are also held in memory to resume from, so a journal
+ * suits Spaces whose results fit in memory anyway.
+ */
+public class ResultJournal<T> implements Closeable {
+	private static final int MAGIC = 0x574B4A4C;
+	private static final int VERSION = 2;
+	private static final int FILE_HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 17;
+	private static final int CRC_OFFSET = 13;
+	private static final int REGION_SIZE = 8 << 20;
+	private static final byte END = 0;
+	private static final byte TASK = 1;
+	private static final byte GROUP = 2;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final ResultSerializer<T> serializer;
+
+	// guarded by this
+	private final Map<Integer, Map<Integer, T>> taskResults = new HashMap<Integer, Map<Integer, T>>();
+	private final Map<Integer, Integer> completedGroups = new HashMap<Integer, Integer>();
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long position;
+	private boolean isClosed;
+
+	/*
+	 * Open the journal at path, creating it if need be, and load whatever
+	 * it already holds.
+	 */
+	public ResultJournal(Path path, ResultSerializer<T> serializer)
+			throws IOException {
+		this.path = path;
+		this.serializer = serializer;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			load();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public synchronized boolean isGroupComplete(int groupId) {
+		return completedGroups.containsKey(groupId);
+	}
+
+	// Results of the Group's journaled tasks by task id
+	public synchronized Map<Integer, T> getTaskResults(int groupId) {
+		Map<Integer, T> results = taskResults.get(groupId);
+		return results == null ? new HashMap<Integer, T>()
+				: new HashMap<Integer, T>(results);
+	}
+
+	/*
+	 * @throws IllegalStateException if the Group was not journaled as
+	 * complete
+	 */
+	public synchronized Result<T> getGroupResult(int groupId) {
+		Integer resultCount = completedGroups.get(groupId);
+		if (resultCount == null) {
+			throw new IllegalStateException("Group: " + groupId
+					+ " is not complete in journal: " + path);
+		}
+		Map<Integer, T> results = taskResults.get(groupId);
+		Result<T> result = new Result<T>(resultCount);
+		for (int taskId = 0; taskId < resultCount; taskId++) {
+			result.addResult(results == null ? null : results.get(taskId));
+		}
+		return result;
+	}
+
+	public void recordTask(int groupId, int taskId, T result)
+			throws IOException {
+		byte[] data = serializer.serialize(result);
+		synchronized (this) {
+			append(TASK, groupId, taskId, data);
+			index(groupId, taskId, result);
+		}
+	}
+
+	// Marks the Group complete and forces the journal to disk
+	public synchronized void recordGroup(int groupId, int resultCount)
+			throws IOException {
+		append(GROUP, groupId, resultCount, new byte[0]);
+		completedGroups.put(groupId, resultCount);
+		region.force();
+	}
+
+	public synchronized void flush() {
+		if (region != null) {
+			region.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		flush();
+		region = null;
+		try {
+			// Drop the unused, zeroed tail of the last region
+			channel.truncate(position);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void load() throws IOException {
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.write(header, 0);
+			position = FILE_HEADER_SIZE;
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		if (channel.read(header, 0) != FILE_HEADER_SIZE
+				|| header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+			throw new IOException("Not a workgroup journal: " + path);
+		}
+
+		long size = channel.size();
+		position = FILE_HEADER_SIZE;
+		ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		while (position + RECORD_HEADER_SIZE <= size) {
+			recordHeader.clear();
+			channel.read(recordHeader, position);
+			byte type = recordHeader.get(0);
+			int groupId = recordHeader.getInt(1);
+			int taskId = recordHeader.getInt(5);
+			int length = recordHeader.getInt(9);
+			if (type == END || length < 0
+					|| position + RECORD_HEADER_SIZE + length > size) {
+				break;
+			}
+			ByteBuffer data = ByteBuffer.allocate(length);
+			channel.read(data, position + RECORD_HEADER_SIZE);
+			if (checksum(recordHeader, data.array()) != recordHeader
+					.getInt(CRC_OFFSET)) {
+				break;
+			}
+
+			if (type == TASK) {
+				T result;
+				try {
+					result = serializer.deserialize(data.array());
+				} catch (IOException e) {
+					break;
+				} catch (RuntimeException e) {
+					break;
+				}
+				index(groupId, taskId, result);
+			} else if (type == GROUP) {
+				completedGroups.put(groupId, taskId);
+			} else {
+				break;
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+		/*
+		 * Discard a record torn by a crash, and anything after a record that
+		 * cannot be read, so new records follow on cleanly
+		 */
+		channel.truncate(position);
+	}
+
+	private void append(byte type, int groupId, int taskId, byte[] data)
+			throws IOException {
+		if (isClosed) {
+			throw new IOException("Journal closed: " + path);
+		}
+		int recordSize = RECORD_HEADER_SIZE + data.length;
+		if (region == null
+				|| position + recordSize > regionStart + region.capacity()) {
+			if (region != null) {
+				// Later forces only reach the new mapping
+				region.force();
+			}
+			// Mapping past the end of the file extends it with zeros
+			regionStart = position;
+			region = channel.map(FileChannel.MapMode.READ_WRITE, position,
+					Math.max(REGION_SIZE, recordSize));
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		header.put(type).putInt(groupId).putInt(taskId).putInt(data.length);
+		header.putInt(CRC_OFFSET, checksum(header, data));
+		int offset = (int) (position - regionStart);
+		ByteBuffer record = region.duplicate();
+		record.position(offset + 1);
+		record.put(header.array(), 1, RECORD_HEADER_SIZE - 1);
+		record.put(data);
+		// The type goes in last so a record is never read half written
+		region.put(offset, type);
+		position += recordSize;
+	}
+
+	// CRC32 of the record's header fields up to the CRC, then its payload
+	private static int checksum(ByteBuffer header, byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 0, CRC_OFFSET);
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+
+	private void index(int groupId, int taskId, T result) {
+		Map<Integer, T> results = taskResults.get(groupId);
+		if (results == null) {
+			results = new HashMap<Integer, T>();
+			taskResults.put(groupId, results);
+		}
+		results.put(taskId, result);
+	}
+}
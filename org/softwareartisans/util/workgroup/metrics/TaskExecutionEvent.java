@@ -0,0 +1,54 @@
+package org.softwareartisans.util.workgroup.metrics;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("org.softwareartisans.workgroup.TaskExecution")
+@Label("Task Execution")
+@Category("Workgroup")
+@Description("One execution of a Group task, successful or not")
+class TaskExecutionEvent extends jdk.jfr.Event {
+	@Label("Group Id")
+	int groupId;
+
+	@Label("Task Id")
+	int taskId;
+
+	@Label("Queue Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long queueTime;
+
+	@Label("Run Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long runTime;
+
+	@Label("Succeeded")
+	boolean succeeded;
+}
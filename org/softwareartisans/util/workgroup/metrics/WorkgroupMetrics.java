@@ -0,0 +1,322 @@
+package org.softwareartisans.util.workgroup.metrics;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.softwareartisans.util.workgroup.LatencyHistogram;
+
+/*
+ * Throughput counters and latency histograms for Groups and Spaces, exposed
+ * over JMX and mirrored as JFR events when a recording has them enabled.
+ * 
+ * Instrumentation is opt-in: a Group or Space without metrics skips every
+ * hook with a single null check. With metrics, each hook is a striped counter
+ * increment plus an atomic histogram increment, with no locks and no
+ * allocation, so the same instance can be shared by every Group in a process
+ * and left on in production.
+ */
+public class WorkgroupMetrics implements WorkgroupMetricsMBean {
+	private final LongAdder tasksSubmitted = new LongAdder();
+	private final LongAdder tasksSucceeded = new LongAdder();
+	private final LongAdder tasksFailed = new LongAdder();
+	private final LongAdder tasksCancelled = new LongAdder();
+	// Cancelled after submission, so counted in tasksSubmitted
+	private final LongAdder submittedCancelled = new LongAdder();
+	private final LongAdder retriesScheduled = new LongAdder();
+	private final LongAdder retriesRefused = new LongAdder();
+	private final LongAdder groupsSucceeded = new LongAdder();
+	private final LongAdder groupsFailed = new LongAdder();
+	private final LongAdder spacesSucceeded = new LongAdder();
+	private final LongAdder spacesFailed = new LongAdder();
+
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram runTime = new LatencyHistogram();
+	private final LatencyHistogram retryDelay = new LatencyHistogram();
+	private final LatencyHistogram groupTime = new LatencyHistogram();
+	private final LatencyHistogram spaceTime = new LatencyHistogram();
+
+	private ObjectName objectName;
+
+	/*
+	 * Hooks called by Group and Space
+	 */
+
+	public void taskSubmitted() {
+		tasksSubmitted.increment();
+	}
+
+	public void taskFinished(int groupId, int taskId, long queueNanos,
+			long runNanos, boolean isSuccess) {
+		(isSuccess ? tasksSucceeded : tasksFailed).increment();
+		queueWait.record(queueNanos);
+		runTime.record(runNanos);
+
+		TaskExecutionEvent event = new TaskExecutionEvent();
+		if (event.isEnabled()) {
+			event.groupId = groupId;
+			event.taskId = taskId;
+			event.queueTime = queueNanos;
+			event.runTime = runNanos;
+			event.succeeded = isSuccess;
+			event.commit();
+		}
+	}
+
+	/*
+	 * An execution cancelled other than by its deadline: as a hedge loser,
+	 * or when its Group finished first. One never submitted, e.g. still
+	 * waiting on a rate limit, was never counted in flight.
+	 */
+	public void taskCancelled(boolean wasSubmitted) {
+		tasksCancelled.increment();
+		if (wasSubmitted) {
+			submittedCancelled.increment();
+		}
+	}
+
+	public void retryScheduled(int groupId, int taskId, long delayMillis) {
+		retriesScheduled.increment();
+		retryDelay.record(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+		commitRetryEvent(groupId, taskId, delayMillis, false);
+	}
+
+	public void retryRefused(int groupId, int taskId) {
+		retriesRefused.increment();
+		commitRetryEvent(groupId, taskId, 0, true);
+	}
+
+	public void groupFinished(int groupId, int taskCount, long nanos,
+			boolean isSuccess) {
+		(isSuccess ? groupsSucceeded : groupsFailed).increment();
+		groupTime.record(nanos);
+
+		GroupEvent event = new GroupEvent();
+		if (event.isEnabled()) {
+			event.groupId = groupId;
+			event.taskCount = taskCount;
+			event.groupTime = nanos;
+			event.succeeded = isSuccess;
+			event.commit();
+		}
+	}
+
+	public void spaceFinished(long nanos, boolean isSuccess) {
+		(isSuccess ? spacesSucceeded : spacesFailed).increment();
+		spaceTime.record(nanos);
+	}
+
+	private void commitRetryEvent(int groupId, int taskId, long delayMillis,
+			boolean isRefused) {
+		TaskRetryEvent event = new TaskRetryEvent();
+		if (event.isEnabled()) {
+			event.groupId = groupId;
+			event.taskId = taskId;
+			event.delay = delayMillis;
+			event.refused = isRefused;
+			event.commit();
+		}
+	}
+
+	/*
+	 * JMX registration
+	 */
+
+	public synchronized void registerMBean(String name) {
+		try {
+			ObjectName registered = new ObjectName(
+					"org.softwareartisans.workgroup:type=WorkgroupMetrics,name="
+							+ ObjectName.quote(name));
+			getMBeanServer().registerMBean(this, registered);
+			objectName = registered;
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register metrics: "
+					+ name, e);
+		}
+	}
+
+	public synchronized void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			getMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not unregister metrics: "
+					+ objectName, e);
+		}
+	}
+
+	private MBeanServer getMBeanServer() {
+		return ManagementFactory.getPlatformMBeanServer();
+	}
+
+	/*
+	 * WorkgroupMetricsMBean
+	 */
+
+	@Override
+	public long getTasksSubmitted() {
+		return tasksSubmitted.sum();
+	}
+
+	@Override
+	public long getTasksSucceeded() {
+		return tasksSucceeded.sum();
+	}
+
+	@Override
+	public long getTasksFailed() {
+		return tasksFailed.sum();
+	}
+
+	@Override
+	public long getTasksCancelled() {
+		return tasksCancelled.sum();
+	}
+
+	@Override
+	public long getTasksInFlight() {
+		return Math.max(0, tasksSubmitted.sum() - tasksSucceeded.sum()
+				- tasksFailed.sum() - submittedCancelled.sum());
+	}
+
+	@Override
+	public long getRetriesScheduled() {
+		return retriesScheduled.sum();
+	}
+
+	@Override
+	public long getRetriesRefused() {
+		return retriesRefused.sum();
+	}
+
+	@Override
+	public long getGroupsSucceeded() {
+		return groupsSucceeded.sum();
+	}
+
+	@Override
+	public long getGroupsFailed() {
+		return groupsFailed.sum();
+	}
+
+	@Override
+	public long getSpacesSucceeded() {
+		return spacesSucceeded.sum();
+	}
+
+	@Override
+	public long getSpacesFailed() {
+		return spacesFailed.sum();
+	}
+
+	@Override
+	public long getQueueWaitP50Nanos() {
+		return queueWait.getPercentile(0.5);
+	}
+
+	@Override
+	public long getQueueWaitP99Nanos() {
+		return queueWait.getPercentile(0.99);
+	}
+
+	@Override
+	public long getRunTimeP50Nanos() {
+		return runTime.getPercentile(0.5);
+	}
+
+	@Override
+	public long getRunTimeP99Nanos() {
+		return runTime.getPercentile(0.99);
+	}
+
+	@Override
+	public long getRetryDelayP99Nanos() {
+		return retryDelay.getPercentile(0.99);
+	}
+
+	@Override
+	public long getGroupTimeP50Nanos() {
+		return groupTime.getPercentile(0.5);
+	}
+
+	@Override
+	public long getGroupTimeP99Nanos() {
+		return groupTime.getPercentile(0.99);
+	}
+
+	@Override
+	public long getSpaceTimeP99Nanos() {
+		return spaceTime.getPercentile(0.99);
+	}
+
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	public LatencyHistogram getRunTime() {
+		return runTime;
+	}
+
+	public LatencyHistogram getRetryDelay() {
+		return retryDelay;
+	}
+
+	public LatencyHistogram getGroupTime() {
+		return groupTime;
+	}
+
+	public LatencyHistogram getSpaceTime() {
+		return spaceTime;
+	}
+
+	@Override
+	public void reset() {
+		tasksSubmitted.reset();
+		tasksSucceeded.reset();
+		tasksFailed.reset();
+		tasksCancelled.reset();
+		submittedCancelled.reset();
+		retriesScheduled.reset();
+		retriesRefused.reset();
+		groupsSucceeded.reset();
+		groupsFailed.reset();
+		spacesSucceeded.reset();
+		spacesFailed.reset();
+		queueWait.reset();
+		runTime.reset();
+		retryDelay.reset();
+		groupTime.reset();
+		spaceTime.reset();
+	}
+}
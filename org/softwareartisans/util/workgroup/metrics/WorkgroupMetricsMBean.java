@@ -0,0 +1,73 @@
+package org.softwareartisans.util.workgroup.metrics;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/*
+ * JMX view of WorkgroupMetrics. Latencies are reported in nanoseconds, to
+ * within the 12.5% precision of the underlying histograms.
+ */
+public interface WorkgroupMetricsMBean {
+	public long getTasksSubmitted();
+
+	public long getTasksSucceeded();
+
+	public long getTasksFailed();
+
+	// Cancelled as hedge losers or by their Group finishing first
+	public long getTasksCancelled();
+
+	// Submitted executions not yet finished: queued, running or hedged
+	public long getTasksInFlight();
+
+	public long getRetriesScheduled();
+
+	public long getRetriesRefused();
+
+	public long getGroupsSucceeded();
+
+	public long getGroupsFailed();
+
+	public long getSpacesSucceeded();
+
+	public long getSpacesFailed();
+
+	public long getQueueWaitP50Nanos();
+
+	public long getQueueWaitP99Nanos();
+
+	public long getRunTimeP50Nanos();
+
+	public long getRunTimeP99Nanos();
+
+	public long getRetryDelayP99Nanos();
+
+	public long getGroupTimeP50Nanos();
+
+	public long getGroupTimeP99Nanos();
+
+	public long getSpaceTimeP99Nanos();
+
+	public void reset();
+}
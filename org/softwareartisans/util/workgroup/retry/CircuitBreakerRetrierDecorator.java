@@ -0,0 +1,111 @@
+package org.softwareartisans.util.workgroup.retry;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Circuit breaker over the retries of every Group sharing this retrier. After
+ * failureThreshold failures with no success in between the circuit opens and
+ * every retry is refused, failing the Groups fast instead of piling retries
+ * onto a dependency that is down. Once openDuration has passed a single trial
+ * retry is let through (half-open): a success closes the circuit again and a
+ * failure reopens it.
+ * 
+ * State changes are compare-and-set transitions; a retry or success in the
+ * closed state is a single atomic update.
+ */
+public class CircuitBreakerRetrierDecorator extends RetrierDecorator {
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int HALF_OPEN = 2;
+
+	private final int failureThreshold;
+	private final long openDurationNanos;
+
+	private final AtomicInteger state = new AtomicInteger(CLOSED);
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final AtomicLong openedAt = new AtomicLong();
+
+	public CircuitBreakerRetrierDecorator(Retrier decoratedRetrier,
+			int failureThreshold, long openDuration) {
+		super(decoratedRetrier);
+		if (failureThreshold < 1 || openDuration < 0) {
+			throw new IllegalArgumentException("Invalid circuit breaker: "
+					+ failureThreshold + " failures, " + openDuration + "ms");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openDurationNanos = openDuration * 1000000L;
+	}
+
+	@Override
+	public long retry(int groupId, int taskId) {
+		switch (state.get()) {
+		case CLOSED:
+			if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+				trip(CLOSED);
+			}
+			break;
+		case HALF_OPEN:
+			// The trial failed, or another failure arrived meanwhile
+			trip(HALF_OPEN);
+			throw circuitOpen(groupId, taskId);
+		default:
+			if (System.nanoTime() - openedAt.get() < openDurationNanos
+					|| !state.compareAndSet(OPEN, HALF_OPEN)) {
+				throw circuitOpen(groupId, taskId);
+			}
+			// This retry is the half-open trial
+		}
+		return super.retry(groupId, taskId);
+	}
+
+	@Override
+	public void recordSuccess(int groupId, int taskId) {
+		super.recordSuccess(groupId, taskId);
+		// Read first so the common case does not write a shared cache line
+		if (consecutiveFailures.get() != 0) {
+			consecutiveFailures.set(0);
+		}
+		if (state.get() == HALF_OPEN) {
+			state.compareAndSet(HALF_OPEN, CLOSED);
+		}
+	}
+
+	public boolean isOpen() {
+		return state.get() != CLOSED;
+	}
+
+	private void trip(int fromState) {
+		openedAt.set(System.nanoTime());
+		state.compareAndSet(fromState, OPEN);
+	}
+
+	private IllegalStateException circuitOpen(int groupId, int taskId) {
+		return new IllegalStateException("Circuit open - Group: " + groupId
+				+ " Task: " + taskId + " not retried");
+	}
+}
@@ -0,0 +1,93 @@
+package org.softwareartisans.util.workgroup.retry;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Exponential backoff between retries of the same task, capped at a maximum
+ * delay. Jitter spreads the retries of tasks that failed together so they do
+ * not hit the backend again in lockstep:
+ * 
+ * NONE - base, 2 * base, 4 * base ... up to the cap
+ * FULL - uniformly random between zero and the exponential delay
+ * DECORRELATED - uniformly random between base and three times the previous
+ * delay, up to the cap
+ */
+public class ExponentialBackoffRetrierDecorator extends RetrierDecorator {
+	public enum Jitter {
+		NONE, FULL, DECORRELATED
+	}
+
+	private final long baseDelay;
+	private final long maxDelay;
+	private final Jitter jitter;
+
+	// Previous backoff per task - a task only has one retry pending at a time
+	private final RetryCounters previousDelays = new RetryCounters();
+
+	public ExponentialBackoffRetrierDecorator(Retrier decoratedRetrier,
+			long baseDelay, long maxDelay, Jitter jitter) {
+		super(decoratedRetrier);
+		if (baseDelay <= 0 || maxDelay < baseDelay) {
+			throw new IllegalArgumentException("Invalid backoff range: "
+					+ baseDelay + " - " + maxDelay);
+		}
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.jitter = jitter;
+	}
+
+	@Override
+	public long retry(int groupId, int taskId) {
+		long decoratedDelay = super.retry(groupId, taskId);
+
+		long backoff = nextBackoff(previousDelays.getTask(groupId, taskId));
+		previousDelays.setTask(groupId, taskId, backoff);
+
+		long delay = jitter == Jitter.FULL ? ThreadLocalRandom.current()
+				.nextLong(backoff + 1) : backoff;
+		return Math.max(decoratedDelay, delay);
+	}
+
+	@Override
+	public void release(int groupId) {
+		super.release(groupId);
+		previousDelays.release(groupId);
+	}
+
+	private long nextBackoff(long previous) {
+		if (previous == 0) {
+			return baseDelay;
+		}
+		if (jitter == Jitter.DECORRELATED) {
+			long upper = Math.min(maxDelay, previous * 3);
+			return upper <= baseDelay ? baseDelay : baseDelay
+					+ ThreadLocalRandom.current().nextLong(
+							upper - baseDelay + 1);
+		}
+		return Math.min(maxDelay, previous * 2);
+	}
+}
@@ -24,37 +24,57 @@ package org.softwareartisans.util.workgroup.retry;
  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+/*
+ * Counts retries per task, per group and across every group using this
+ * retrier, refusing a retry once any count passes its limit. Task counts are
+ * kept per (group, task) and the counters are lock-free, so retry checks do
+ * not serialize during a burst of failures.
+ */
 @Component
 public class ImmediateCounting implements Retrier {
-	// TODO: Refactor to ArrayLists
-	private static final Map<Integer, Integer> taskRetryCounts = new ConcurrentHashMap<Integer, Integer>();
-	private static final Map<Integer, Integer> groupRetryCounts = new ConcurrentHashMap<Integer, Integer>();
-	private int globalRetryCount;
+	private final RetryCounters retryCounts = new RetryCounters();
+	private final AtomicLong globalRetryCount = new AtomicLong();
 
 	@Value("${spring.taskRetryLimit}")
-	private final int taskRetryLimit = 2;
+	private int taskRetryLimit = 2;
 
 	@Value("${spring.groupRetryLimit}")
-	private final int groupRetryLimit = 10;
+	private int groupRetryLimit = 10;
 
 	@Value("${spring.globalRetryLimit}")
-	private final int globalRetryLimit = 20;
+	private int globalRetryLimit = 20;
+
+	public ImmediateCounting() {
+	}
+
+	// Limits set directly when not injected
+	public ImmediateCounting(int taskRetryLimit, int groupRetryLimit,
+			int globalRetryLimit) {
+		this.taskRetryLimit = taskRetryLimit;
+		this.groupRetryLimit = groupRetryLimit;
+		this.globalRetryLimit = globalRetryLimit;
+	}
 
 	@Override
-	public void retry(int groupId, int taskId) {
+	public long retry(int groupId, int taskId) {
 		checkGlobalRetries(groupId, taskId);
 		checkGroupRetries(groupId, taskId);
 		checkTaskRetries(groupId, taskId);
+		return 0;
+	}
+
+	@Override
+	public void release(int groupId) {
+		retryCounts.release(groupId);
 	}
 
 	private void checkGlobalRetries(int groupId, int taskId) {
-		if (globalRetryCount++ == globalRetryLimit) {
+		if (globalRetryCount.incrementAndGet() > globalRetryLimit) {
 			throw new IllegalStateException(
 					"Global retries exceeded limit - Group: " + groupId
 							+ " Task: " + taskId);
@@ -62,33 +82,17 @@ public class ImmediateCounting implements Retrier {
 	}
 
 	private void checkGroupRetries(int groupId, int taskId) {
-		if (isRetryLimitReached(groupId, groupRetryLimit, groupRetryCounts)) {
+		if (retryCounts.incrementGroup(groupId) > groupRetryLimit) {
 			throw new IllegalStateException("Group: " + groupId
 					+ " exceeded retry limit, Task: " + taskId + " failed");
 		}
 	}
 
 	private void checkTaskRetries(int groupId, int taskId) {
-		if (isRetryLimitReached(taskId, taskRetryLimit, taskRetryCounts)) {
+		if (retryCounts.incrementTask(groupId, taskId) > taskRetryLimit) {
 			throw new IllegalStateException("Task: " + taskId
 					+ " exceeded retry limit, in Group: " + groupId);
 		}
 
 	}
-
-	private boolean isRetryLimitReached(int id, int retryLimit,
-			Map<Integer, Integer> retryCounts) {
-		int retries = 0;
-
-		synchronized (this) {
-			if (retryCounts.containsKey(id)) {
-				retries = retryCounts.get(id);
-			} else {
-				retryCounts.put(id, retries);
-			}
-			retryCounts.put(id, ++retries);
-		}
-
-		return retries > retryLimit;
-	}
 }
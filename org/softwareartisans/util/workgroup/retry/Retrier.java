@@ -24,6 +24,35 @@ package org.softwareartisans.util.workgroup.retry;
  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+/*
+ * Retry policy consulted each time a task fails. A policy that refuses the
+ * retry throws IllegalStateException, otherwise it returns how long the
+ * task should wait before it is resubmitted. Waiting is left to the caller,
+ * which schedules the resubmission instead of holding a thread.
+ * 
+ * Migrating a policy written when retry returned void: sleep no longer
+ * inside retry, and return the delay instead, or 0 to resubmit at once.
+ * recordSuccess and release do nothing unless overridden.
+ */
 public interface Retrier {
-	public void retry(int groupId, int taskId);
+	/*
+	 * @throws IllegalStateException if the task may not be retried
+	 * 
+	 * @returns delay in milliseconds before the task is resubmitted
+	 */
+	public long retry(int groupId, int taskId);
+
+	/*
+	 * Called for every task that completes successfully, so policies can
+	 * weigh failures against successes. Runs on the task's thread and must
+	 * be cheap.
+	 */
+	public default void recordSuccess(int groupId, int taskId) {
+	}
+
+	/*
+	 * Drop any retry state held for the group once it has finished.
+	 */
+	public default void release(int groupId) {
+	}
 }
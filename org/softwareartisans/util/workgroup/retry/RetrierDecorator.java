@@ -32,7 +32,17 @@ public abstract class RetrierDecorator implements Retrier {
 	}
 
 	@Override
-	public void retry(int groupId, int taskId) {
-		decoratedRetrier.retry(groupId, taskId);
+	public long retry(int groupId, int taskId) {
+		return decoratedRetrier.retry(groupId, taskId);
+	}
+
+	@Override
+	public void recordSuccess(int groupId, int taskId) {
+		decoratedRetrier.recordSuccess(groupId, taskId);
+	}
+
+	@Override
+	public void release(int groupId) {
+		decoratedRetrier.release(groupId);
 	}
 }
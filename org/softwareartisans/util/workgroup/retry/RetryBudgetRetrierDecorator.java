@@ -0,0 +1,85 @@
+package org.softwareartisans.util.workgroup.retry;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Limits retries to a fraction of recent successful calls, so retries can add
+ * at most that fraction of extra load when a dependency starts failing. Each
+ * success deposits retryRatio tokens into a bucket holding at most maxTokens,
+ * and each retry withdraws one whole token or is refused. The bucket starts
+ * full so a Group that fails early can still retry.
+ * 
+ * Tokens are held as thousandths in a single AtomicLong, so deposits and
+ * withdrawals are lock-free.
+ */
+public class RetryBudgetRetrierDecorator extends RetrierDecorator {
+	private static final long TOKEN = 1000;
+
+	private final long depositPerSuccess;
+	private final long maxBalance;
+	private final AtomicLong balance;
+
+	public RetryBudgetRetrierDecorator(Retrier decoratedRetrier,
+			double retryRatio, int maxTokens) {
+		super(decoratedRetrier);
+		if (retryRatio <= 0 || maxTokens < 1) {
+			throw new IllegalArgumentException("Invalid retry budget: ratio "
+					+ retryRatio + ", " + maxTokens + " tokens");
+		}
+		this.depositPerSuccess = Math.max(1, Math.round(retryRatio * TOKEN));
+		this.maxBalance = maxTokens * TOKEN;
+		this.balance = new AtomicLong(maxBalance);
+	}
+
+	@Override
+	public long retry(int groupId, int taskId) {
+		long current;
+		do {
+			current = balance.get();
+			if (current < TOKEN) {
+				throw new IllegalStateException(
+						"Retry budget exhausted - Group: " + groupId
+								+ " Task: " + taskId + " not retried");
+			}
+		} while (!balance.compareAndSet(current, current - TOKEN));
+
+		return super.retry(groupId, taskId);
+	}
+
+	@Override
+	public void recordSuccess(int groupId, int taskId) {
+		super.recordSuccess(groupId, taskId);
+		long current;
+		do {
+			current = balance.get();
+			if (current >= maxBalance) {
+				return;
+			}
+		} while (!balance.compareAndSet(current,
+				Math.min(maxBalance, current + depositPerSuccess)));
+	}
+}
@@ -0,0 +1,175 @@
+package org.softwareartisans.util.workgroup.retry;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Retry state scoped by group: one counter for the group and one slot per
+ * (group, task). Task slots live in pages of primitive atomics that are added
+ * as higher task ids show up, so neither the number of tasks nor boxing is
+ * needed up front. Reads and updates are lock-free; only adding a page takes
+ * the group's lock.
+ * 
+ * A group's state is dropped by release() once the group has finished, so the
+ * counters do not grow over the lifetime of the process. A retry worker of
+ * the group can still be running when it is released; its late calls get
+ * throwaway counters rather than bringing the group's entry back. Group ids
+ * are never reused, so the most recently released ids are remembered to
+ * tell these calls apart.
+ */
+class RetryCounters {
+	private static final int PAGE_SHIFT = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int RELEASED_IDS = 1024;
+
+	private final ConcurrentMap<Integer, GroupCounters> groups = new ConcurrentHashMap<Integer, GroupCounters>();
+
+	// Most retriers serve a single group, so skip the map in that case
+	private final AtomicReference<GroupCounters> lastGroup = new AtomicReference<GroupCounters>();
+
+	// guarded by itself; creating and releasing a group's entry both lock it
+	private final Set<Integer> releasedIds = Collections
+			.newSetFromMap(new LinkedHashMap<Integer, Boolean>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Integer, Boolean> eldest) {
+					return size() > RELEASED_IDS;
+				}
+			});
+
+	long incrementGroup(int groupId) {
+		return getGroup(groupId).groupCount.incrementAndGet();
+	}
+
+	long incrementTask(int groupId, int taskId) {
+		return getGroup(groupId).getPage(taskId).incrementAndGet(
+				taskId & PAGE_MASK);
+	}
+
+	long getTask(int groupId, int taskId) {
+		return getGroup(groupId).getPage(taskId).get(taskId & PAGE_MASK);
+	}
+
+	void setTask(int groupId, int taskId, long value) {
+		getGroup(groupId).getPage(taskId).set(taskId & PAGE_MASK, value);
+	}
+
+	void release(int groupId) {
+		GroupCounters group;
+		synchronized (releasedIds) {
+			releasedIds.add(groupId);
+			group = groups.remove(groupId);
+		}
+		if (group != null) {
+			group.isReleased = true;
+			// Only clear the cache if it still holds this group
+			lastGroup.compareAndSet(group, null);
+		}
+	}
+
+	private GroupCounters getGroup(int groupId) {
+		GroupCounters group = lastGroup.get();
+		if (group != null && group.groupId == groupId && !group.isReleased) {
+			return group;
+		}
+
+		group = groups.get(groupId);
+		if (group == null) {
+			synchronized (releasedIds) {
+				if (releasedIds.contains(groupId)) {
+					return new GroupCounters(groupId);
+				}
+				group = groups.get(groupId);
+				if (group == null) {
+					group = new GroupCounters(groupId);
+					groups.put(groupId, group);
+				}
+			}
+		}
+		cache(group);
+		return group;
+	}
+
+	// A group released meanwhile must not be left in the cache
+	private void cache(GroupCounters group) {
+		lastGroup.set(group);
+		if (group.isReleased) {
+			lastGroup.compareAndSet(group, null);
+		}
+	}
+
+	private static class GroupCounters {
+		private final int groupId;
+		private final AtomicLong groupCount = new AtomicLong();
+		private volatile boolean isReleased = false;
+		private volatile AtomicLongArray[] pages = new AtomicLongArray[1];
+
+		GroupCounters(int groupId) {
+			this.groupId = groupId;
+		}
+
+		AtomicLongArray getPage(int taskId) {
+			if (taskId < 0) {
+				throw new IllegalArgumentException("Invalid task id: " + taskId);
+			}
+			int pageIndex = taskId >>> PAGE_SHIFT;
+			AtomicLongArray[] current = pages;
+			if (pageIndex < current.length && current[pageIndex] != null) {
+				return current[pageIndex];
+			}
+			return addPage(pageIndex);
+		}
+
+		private synchronized AtomicLongArray addPage(int pageIndex) {
+			AtomicLongArray[] current = pages;
+			if (pageIndex >= current.length) {
+				AtomicLongArray[] grown = new AtomicLongArray[Math.max(
+						pageIndex + 1, current.length * 2)];
+				System.arraycopy(current, 0, grown, 0, current.length);
+				current = grown;
+			} else if (current[pageIndex] != null) {
+				return current[pageIndex];
+			} else {
+				current = current.clone();
+			}
+			AtomicLongArray page = new AtomicLongArray(PAGE_SIZE);
+			current[pageIndex] = page;
+			pages = current;
+			return page;
+		}
+	}
+}
@@ -26,6 +26,11 @@ package org.softwareartisans.util.workgroup.retry;
 
 import org.springframework.beans.factory.annotation.Value;
 
+/*
+ * Fixed wait between retries. The wait is returned to the caller to schedule
+ * rather than slept here, so a burst of failures does not park a thread per
+ * failing task.
+ */
 public class TimedRetrierDecorator extends RetrierDecorator {
 	@Value("${spring.taskRetryWait}")
 	private final int retryWait = 1;
@@ -35,11 +40,7 @@ public class TimedRetrierDecorator extends RetrierDecorator {
 	}
 
 	@Override
-	public void retry(int groupId, int taskId) {
-		super.retry(groupId, taskId);
-		try {
-			Thread.sleep(retryWait);
-		} catch (InterruptedException interrupt) {
-		}
+	public long retry(int groupId, int taskId) {
+		return Math.max(super.retry(groupId, taskId), retryWait);
 	}
 }
@@ -0,0 +1,185 @@
+package org.softwareartisans.util.workgroup.trace;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Always-on flight recorder of task lifecycle events, kept so a Space that
+ * stops, stalls or falls into a retry storm can be examined afterwards
+ * without verbose logging. Every Group records into the process-wide ring.
+ * 
+ * The ring is preallocated as parallel primitive arrays, so recording an
+ * event allocates nothing and takes no lock: a writer claims a slot from a
+ * sequence counter and overwrites the oldest event. Each slot carries a
+ * stamp, cleared while the slot is written and set to its sequence after,
+ * so a dump taken while tasks run skips slots caught half written.
+ * 
+ * Its capacity, rounded up to a power of two, is set by the system property
+ * workgroup.trace.capacity (default 65536 events); zero turns recording off.
+ * 
+ * Dump layout: magic, version (ints), nanoTime and currentTimeMillis at the
+ * dump (longs), thread count, then thread id (long) and name (UTF) for the
+ * threads still alive, event count, then per event, oldest first: type
+ * (byte), group id, task id (ints), thread id, nanoTime (longs).
+ * TraceTimeline turns a dump into per task timelines.
+ */
+public final class EventRing {
+	public static final byte SUBMIT = 1;
+	public static final byte START = 2;
+	public static final byte FINISH = 3;
+	public static final byte FAILURE = 4;
+	public static final byte RETRY = 5;
+	public static final byte CANCEL = 6;
+
+	static final int MAGIC = 0x574B5452;
+	static final int VERSION = 1;
+
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final EventRing defaultRing = new EventRing(
+			Integer.getInteger("workgroup.trace.capacity", DEFAULT_CAPACITY));
+
+	private final int mask;
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final AtomicLongArray stamps;
+	private final byte[] types;
+	private final int[] groupIds;
+	private final int[] taskIds;
+	private final long[] threadIds;
+	private final long[] timestamps;
+
+	public EventRing(int capacity) {
+		if (capacity < 0 || capacity > 1 << 30) {
+			throw new IllegalArgumentException(
+					"Capacity must be between 0 and 2^30: " + capacity);
+		}
+		int size = capacity <= 1 ? capacity : Integer
+				.highestOneBit(capacity - 1) << 1;
+		mask = size - 1;
+		stamps = new AtomicLongArray(size);
+		types = new byte[size];
+		groupIds = new int[size];
+		taskIds = new int[size];
+		threadIds = new long[size];
+		timestamps = new long[size];
+	}
+
+	// The ring Groups record into
+	public static EventRing getDefault() {
+		return defaultRing;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public void record(byte type, int groupId, int taskId) {
+		if (mask < 0) {
+			return;
+		}
+		long sequence = nextSequence.getAndIncrement();
+		int slot = (int) (sequence & mask);
+
+		stamps.lazySet(slot, 0);
+		// Clear the stamp before any field changes
+		VarHandle.storeStoreFence();
+		types[slot] = type;
+		groupIds[slot] = groupId;
+		taskIds[slot] = taskId;
+		threadIds[slot] = Thread.currentThread().getId();
+		timestamps[slot] = System.nanoTime();
+		stamps.lazySet(slot, sequence + 1);
+	}
+
+	/*
+	 * Write the events in the ring to a new file, or replace it.
+	 * 
+	 * @returns the number of events written
+	 */
+	public int dump(Path path) throws IOException {
+		OutputStream file = Files.newOutputStream(path);
+		try {
+			return dump(file);
+		} finally {
+			file.close();
+		}
+	}
+
+	public int dump(OutputStream stream) throws IOException {
+		long dumpNanos = System.nanoTime();
+		long dumpMillis = System.currentTimeMillis();
+		long last = nextSequence.get();
+		long first = Math.max(0, last - getCapacity());
+
+		// Copy out first, so events recorded during the write are not mixed in
+		List<long[]> events = new ArrayList<long[]>();
+		for (long sequence = first; sequence < last; sequence++) {
+			int slot = (int) (sequence & mask);
+			if (stamps.get(slot) != sequence + 1) {
+				continue;
+			}
+			long[] event = new long[] { types[slot], groupIds[slot],
+					taskIds[slot], threadIds[slot], timestamps[slot] };
+			VarHandle.loadLoadFence();
+			if (stamps.get(slot) == sequence + 1) {
+				events.add(event);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				stream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(dumpNanos);
+		out.writeLong(dumpMillis);
+		Map<Thread, StackTraceElement[]> threads = Thread.getAllStackTraces();
+		out.writeInt(threads.size());
+		for (Thread thread : threads.keySet()) {
+			out.writeLong(thread.getId());
+			out.writeUTF(thread.getName());
+		}
+		out.writeInt(events.size());
+		for (long[] event : events) {
+			out.writeByte((int) event[0]);
+			out.writeInt((int) event[1]);
+			out.writeInt((int) event[2]);
+			out.writeLong(event[3]);
+			out.writeLong(event[4]);
+		}
+		out.flush();
+		return events.size();
+	}
+}
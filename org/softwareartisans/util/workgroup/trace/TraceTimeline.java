@@ -0,0 +1,229 @@
+package org.softwareartisans.util.workgroup.trace;
+
+/*
+ Copyright (c) 2013 Software Artisans, LLC
+ Author: Kevin Limperos, klimperos@softwareartisans.org
+
+ Permission is hereby granted, free of charge, to any person obtaining
+ a copy of this software and associated documentation files (the
+ "Software"), to deal in the Software without restriction, including
+ without limitation the rights to use, copy, modify, merge, publish,
+ distribute, sublicense, and/or sell copies of the Software, and to
+ permit persons to whom the Software is furnished to do so, subject to
+ the following conditions:
+
+ The above copyright notice and this permission notice shall be
+ included in all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Turns an EventRing dump into a timeline per task: each event with its
+ * offset from the task's first event and the thread it happened on. Tasks
+ * still running or waiting when the dump was taken are flagged as
+ * unfinished, and the tasks retried most are listed first in a summary, so
+ * stalls and retry storms stand out.
+ * 
+ * Usage: java -cp <classpath>
+ * org.softwareartisans.util.workgroup.trace.TraceTimeline dump [group]
+ */
+public class TraceTimeline {
+	private static final String[] EVENT_NAMES = { "?", "submit", "start",
+			"finish", "failure", "retry", "cancel" };
+	private static final int SUMMARY_SIZE = 10;
+
+	private final long dumpNanos;
+	private final long dumpMillis;
+	private final Map<Long, String> threadNames = new HashMap<Long, String>();
+	// By group id, then task id
+	private final Map<Integer, Map<Integer, List<Event>>> tasks = new TreeMap<Integer, Map<Integer, List<Event>>>();
+
+	public TraceTimeline(Path dump) throws IOException {
+		InputStream file = Files.newInputStream(dump);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					file));
+			if (in.readInt() != EventRing.MAGIC
+					|| in.readInt() != EventRing.VERSION) {
+				throw new IOException("Not a trace dump: " + dump);
+			}
+			dumpNanos = in.readLong();
+			dumpMillis = in.readLong();
+			int threadCount = in.readInt();
+			for (int i = 0; i < threadCount; i++) {
+				threadNames.put(in.readLong(), in.readUTF());
+			}
+			int eventCount = in.readInt();
+			for (int i = 0; i < eventCount; i++) {
+				byte type = in.readByte();
+				int groupId = in.readInt();
+				int taskId = in.readInt();
+				long threadId = in.readLong();
+				long nanos = in.readLong();
+				addEvent(groupId, taskId, new Event(type, threadId, nanos));
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: TraceTimeline dump [group]");
+			System.exit(1);
+		}
+		TraceTimeline timeline = new TraceTimeline(Paths.get(args[0]));
+		Integer group = args.length == 2 ? Integer.valueOf(args[1]) : null;
+		timeline.print(System.out, group);
+	}
+
+	// Print the summary and timelines, for one group if not null
+	public void print(PrintStream out, Integer group) {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd HH:mm:ss.SSS");
+		List<TaskTimeline> timelines = new ArrayList<TaskTimeline>();
+		for (Map.Entry<Integer, Map<Integer, List<Event>>> groupTasks : tasks
+				.entrySet()) {
+			if (group != null && !group.equals(groupTasks.getKey())) {
+				continue;
+			}
+			for (Map.Entry<Integer, List<Event>> task : groupTasks.getValue()
+					.entrySet()) {
+				timelines.add(new TaskTimeline(groupTasks.getKey(), task
+						.getKey(), task.getValue()));
+			}
+		}
+
+		int unfinished = 0;
+		for (TaskTimeline timeline : timelines) {
+			if (!timeline.isFinished()) {
+				unfinished++;
+			}
+		}
+		out.println("Dumped: " + format.format(new Date(dumpMillis))
+				+ ", tasks: " + timelines.size() + ", unfinished: "
+				+ unfinished);
+
+		List<TaskTimeline> mostRetried = new ArrayList<TaskTimeline>(
+				timelines);
+		Collections.sort(mostRetried, new Comparator<TaskTimeline>() {
+			@Override
+			public int compare(TaskTimeline a, TaskTimeline b) {
+				return b.retries - a.retries;
+			}
+		});
+		for (TaskTimeline timeline : mostRetried.subList(0,
+				Math.min(SUMMARY_SIZE, mostRetried.size()))) {
+			if (timeline.retries == 0) {
+				break;
+			}
+			out.println("  Retried " + timeline.retries + " times: Group: "
+					+ timeline.groupId + " Task: " + timeline.taskId);
+		}
+
+		for (TaskTimeline timeline : timelines) {
+			out.println();
+			timeline.print(out);
+		}
+	}
+
+	private void addEvent(int groupId, int taskId, Event event) {
+		Map<Integer, List<Event>> groupTasks = tasks.get(groupId);
+		if (groupTasks == null) {
+			groupTasks = new TreeMap<Integer, List<Event>>();
+			tasks.put(groupId, groupTasks);
+		}
+		List<Event> events = groupTasks.get(taskId);
+		if (events == null) {
+			events = new ArrayList<Event>();
+			groupTasks.put(taskId, events);
+		}
+		events.add(event);
+	}
+
+	private static String eventName(byte type) {
+		return type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type]
+				: "?";
+	}
+
+	private String threadName(long threadId) {
+		String name = threadNames.get(threadId);
+		return name != null ? name : "thread-" + threadId;
+	}
+
+	private static final class Event {
+		private final byte type;
+		private final long threadId;
+		private final long nanos;
+
+		Event(byte type, long threadId, long nanos) {
+			this.type = type;
+			this.threadId = threadId;
+			this.nanos = nanos;
+		}
+	}
+
+	private class TaskTimeline {
+		private final int groupId;
+		private final int taskId;
+		private final List<Event> events;
+		private final int retries;
+
+		TaskTimeline(int groupId, int taskId, List<Event> events) {
+			this.groupId = groupId;
+			this.taskId = taskId;
+			this.events = events;
+			int retryCount = 0;
+			for (Event event : events) {
+				if (event.type == EventRing.RETRY) {
+					retryCount++;
+				}
+			}
+			this.retries = retryCount;
+		}
+
+		boolean isFinished() {
+			byte last = events.get(events.size() - 1).type;
+			return last == EventRing.FINISH || last == EventRing.CANCEL;
+		}
+
+		void print(PrintStream out) {
+			long first = events.get(0).nanos;
+			out.println("Group: " + groupId + " Task: " + taskId
+					+ (isFinished() ? "" : " - unfinished"));
+			for (Event event : events) {
+				out.printf("  %+12.3fms  %-8s %s%n",
+						(event.nanos - first) / 1e6, eventName(event.type),
+						threadName(event.threadId));
+			}
+			if (!isFinished()) {
+				out.printf("  %+12.3fms  (dump)%n", (dumpNanos - first) / 1e6);
+			}
+		}
+	}
+}